@@ -9,12 +9,13 @@ import com.google.firebase.database.ValueEventListener;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import android.graphics.Bitmap;
 import android.support.annotation.NonNull;
 import android.support.test.runner.AndroidJUnit4;
 import android.util.Log;
 
-import java.util.ArrayList;
 
+import ch.epfl.sweng.spotOn.media.FullSizeImageLoader;
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 import ch.epfl.sweng.spotOn.media.PhotoObjectStoredInDatabase;
 import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
@@ -159,9 +160,10 @@ public class DatabaseIOTest {
             }
             // RETRIEVE FULLSIZEIMAGE FROM FILESERVER
             Log.d("dbio_test", "retrieved \n" + retrievingFullSizeImagesWorkCorrectly_retrievedPhotoObject.toString());
-            retrievingFullSizeImagesWorkCorrectly_retrievedPhotoObject.retrieveFullsizeImage(true, new OnCompleteListener() {
+            FullSizeImageLoader.getInstance().load(retrievingFullSizeImagesWorkCorrectly_retrievedPhotoObject, 0, 0)
+                    .addOnCompleteListener(new OnCompleteListener<Bitmap>() {
                 @Override
-                public void onComplete(@NonNull Task task) {
+                public void onComplete(@NonNull Task<Bitmap> task) {
                     synchronized (lock) {
                         lock.notify();
                     }
@@ -194,15 +196,8 @@ public class DatabaseIOTest {
         int upvotes = 9;
         int downvotes = 7;
         int reports = 1;
-        ArrayList<String> upvotersList = new ArrayList<>();
-        upvotersList.add("truc");
-        upvotersList.add("machine");
-        ArrayList<String> downvotersList = new ArrayList<>();
-        ArrayList<String> reportersList = new ArrayList<>();
-        reportersList.add("user1");
         PhotoObject photo1 = new PhotoObject(imageLink, null, "key1", author, photoName, createdDate,
-                latitude, longitude, upvotes, downvotes, reports, upvotersList, downvotersList,
-                reportersList);
+                latitude, longitude, upvotes, downvotes, reports);
         if (photo1.getLongitude() != longitude) {
             throw new AssertionError("longitude wrongly get");
         }
@@ -239,15 +234,6 @@ public class DatabaseIOTest {
         if (!(photo1.getReports() == reports)) {
             throw new AssertionError("reports wrongly get");
         }
-        if (!(photo1.getUpvotersList().equals(upvotersList))) {
-            throw new AssertionError("voters wrongly get");
-        }
-        if (!(photo1.getDownvotersList().equals(downvotersList))) {
-            throw new AssertionError("voters wrongly get");
-        }
-        if (!(photo1.getReportersList().equals(reportersList))) {
-            throw new AssertionError("reporters wrongly get");
-        }
     }
 
 
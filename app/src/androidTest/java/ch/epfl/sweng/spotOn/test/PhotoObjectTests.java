@@ -1,9 +1,13 @@
 package ch.epfl.sweng.spotOn.test;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
 
 
 import junit.framework.Assert;
@@ -13,12 +17,22 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-import java.util.ArrayList;
 
+import ch.epfl.sweng.spotOn.media.FullSizeImageCache;
 import ch.epfl.sweng.spotOn.media.PhotoObject;
+import ch.epfl.sweng.spotOn.media.PhotoObjectStoredInDatabase;
+import ch.epfl.sweng.spotOn.media.ThumbnailCache;
+import ch.epfl.sweng.spotOn.media.VotesStoredInDatabase;
 import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
+import ch.epfl.sweng.spotOn.test.util.MockUser_forTests;
 import ch.epfl.sweng.spotOn.test.util.PhotoObjectTestUtils;
+import ch.epfl.sweng.spotOn.user.User;
+import ch.epfl.sweng.spotOn.user.UserManager;
 
 import static ch.epfl.sweng.spotOn.media.PhotoObject.DEFAULT_LIFETIME;
 import static ch.epfl.sweng.spotOn.media.PhotoObject.DEFAULT_VIEW_RADIUS;
@@ -73,8 +87,10 @@ public class PhotoObjectTests {
 
     @Test
     public void chainedVotesRegisterWell(){
+        // only the votes of the current user are remembered, in his index
+        String sameAuthorId = "jeVotePlusieursFois";
+        logInMockUser(sameAuthorId);
         for(PhotoObject p : getAllPO()) {
-            String sameAuthorId = "jeVotePlusieursFois";
             p.processVote(1, sameAuthorId);
             p.processVote(-1, sameAuthorId);
             p.processVote(1, sameAuthorId);
@@ -98,6 +114,7 @@ public class PhotoObjectTests {
                 throw new AssertionError("votes should all be registered\n"+p.toString());
             }
         }
+        UserManager.getInstance().destroyUser();
     }
 
     @Test
@@ -158,15 +175,171 @@ public class PhotoObjectTests {
 
     @Test
     public void testProcessReport(){
+        MockUser_forTests reporter = logInMockUser("user1");
         for(PhotoObject p : getAllPO()) {
-            ArrayList<String> reporters = new ArrayList<String>(){};
-            reporters.add("user1");
-
+            p.processReport("user1");
             p.processReport("user1");
 
             Assert.assertEquals(p.getReports(), 1);
-            Assert.assertEquals(p.getReportersList().equals(reporters), true);
+            Assert.assertEquals(p.hasReported("user1"), true);
+            Assert.assertEquals(reporter.hasReported(p.getPictureId()), true);
+            Assert.assertEquals(p.hasReported("user2"), false);
         }
+        UserManager.getInstance().destroyUser();
+    }
+
+    @Test
+    public void votesOfTheCurrentUserAreKeptInHisIndex(){
+        MockUser_forTests voter = logInMockUser("indexedVoter");
+
+        PhotoObject p = getRandomPhotoObject();
+        p.processVote(1, "indexedVoter");
+        Assert.assertEquals(voter.getVote(p.getPictureId()), 1);
+
+        // the same picture fetched again from the database doesn't carry its voters anymore
+        PhotoObject fetchedAgain = PhotoObjectTestUtils.convertToStoredInDatabase(p).convertToPhotoObject();
+        Assert.assertEquals(fetchedAgain.hasUpvoted("indexedVoter"), true);
+        fetchedAgain.processVote(0, "indexedVoter");
+        Assert.assertEquals(voter.getVote(p.getPictureId()), 0);
+        Assert.assertEquals(fetchedAgain.getUpvotes(), p.getUpvotes() - 1);
+
+        UserManager.getInstance().destroyUser();
+    }
+
+    @Test
+    public void votesAndReportsWaitForTheIndexOfTheUser(){
+        MockUser_forTests loadingUser = logInMockUser("loadingVoter", false);
+
+        PhotoObject p = getRandomPhotoObject();
+        int upvotes = p.getUpvotes();
+        int reports = p.getReports();
+        // he may already have upvoted the picture, which isn't known until his index is loaded
+        Assert.assertEquals(p.processVote(1, "loadingVoter"), User.LOGIN_NOT_RETRIEVED_FROM_DB_MESSAGE);
+        Assert.assertEquals(p.processReport("loadingVoter"), User.LOGIN_NOT_RETRIEVED_FROM_DB_MESSAGE);
+        Assert.assertEquals(p.getUpvotes(), upvotes);
+        Assert.assertEquals(p.getReports(), reports);
+        Assert.assertEquals(loadingUser.getVote(p.getPictureId()), 0);
+        Assert.assertEquals(loadingUser.hasReported(p.getPictureId()), false);
+
+        UserManager.getInstance().destroyUser();
+    }
+
+    @Test
+    public void updateFromDatabaseOnlyChangesVotesAndReports(){
+        PhotoObject p = getRandomPhotoObject();
+        Bitmap thumbnailBeforeUpdate = p.getThumbnail();
+        PhotoObjectStoredInDatabase stored = PhotoObjectTestUtils.convertToStoredInDatabase(p);
+        stored.setVotes(new VotesStoredInDatabase(5, 2, stored.getExpireDate()));
+        stored.setReports(1);
+
+        stored.updatePhotoObject(p);
+
+        Assert.assertEquals(p.getUpvotes(), 5);
+        Assert.assertEquals(p.getDownvotes(), 2);
+        Assert.assertEquals(p.getReports(), 1);
+        Assert.assertEquals(p.getRadius(), p.radius(3));
+        Assert.assertEquals(p.getThumbnail().sameAs(thumbnailBeforeUpdate), true);
+    }
+
+    @Test
+    public void picturesWithoutVotesChildUseTheirLegacyCounts(){
+        PhotoObject p = getRandomPhotoObject();
+        PhotoObjectStoredInDatabase stored = PhotoObjectTestUtils.convertToStoredInDatabase(p);
+        stored.setVotes(null);
+        stored.setUpvotes(4);
+        stored.setDownvotes(3);
+        stored.setExpireDate(p.getExpireDate().getTime());
+
+        PhotoObject legacy = stored.convertToPhotoObject();
+
+        Assert.assertEquals(legacy.getUpvotes(), 4);
+        Assert.assertEquals(legacy.getDownvotes(), 3);
+        Assert.assertEquals(stored.getExpireDate(), p.getExpireDate().getTime());
+    }
+
+    @Test
+    public void voteOnPictureWithoutVotesChildMovesItsLegacyCounts() throws InterruptedException {
+        logInMockUser("legacyVoter");
+        PhotoObject p = getRandomPhotoObject();
+        PhotoObjectStoredInDatabase stored = PhotoObjectTestUtils.convertToStoredInDatabase(p);
+        // the vote is only sent to the database for uploaded pictures
+        stored.setFullSizePhotoLink("https://upload.wikimedia.org/wikipedia/commons/4/4e/Ice_Diving_2.jpg");
+        stored.setVotes(null);
+        DatabaseReference pictureRef = DatabaseRef.getMediaDirectory().child(p.getPictureId());
+        pictureRef.setValue(stored);
+        Map<String, Object> legacyCounts = new HashMap<>();
+        legacyCounts.put("upvotes", 4);
+        legacyCounts.put("downvotes", 3);
+        legacyCounts.put("expireDate", p.getExpireDate().getTime());
+        pictureRef.updateChildren(legacyCounts);
+        stored.setUpvotes(4);
+        stored.setDownvotes(3);
+        PhotoObject legacy = stored.convertToPhotoObject();
+
+        final CountDownLatch migrated = new CountDownLatch(1);
+        final VotesStoredInDatabase[] storedVotes = new VotesStoredInDatabase[1];
+        ValueEventListener listener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                if(dataSnapshot.hasChild("votes") && !dataSnapshot.hasChild("upvotes")){
+                    storedVotes[0] = dataSnapshot.child("votes").getValue(VotesStoredInDatabase.class);
+                    migrated.countDown();
+                }
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+            }
+        };
+        pictureRef.addValueEventListener(listener);
+        legacy.processVote(1, "legacyVoter");
+        boolean done = migrated.await(10, TimeUnit.SECONDS);
+        pictureRef.removeEventListener(listener);
+        DatabaseRef.deletePhotoObjectFromDB(p.getPictureId());
+        UserManager.getInstance().destroyUser();
+
+        Assert.assertEquals(done, true);
+        Assert.assertEquals(storedVotes[0].getUpvotes(), 5);
+        Assert.assertEquals(storedVotes[0].getDownvotes(), 3);
+        Assert.assertEquals(legacy.getCommittedVotesCount(), 1);
+        // no attempt received stored counts, so none of them was caused by another voter
+        Assert.assertEquals(legacy.getVoteRetriesCount(), 0);
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void updateFromDatabaseRejectsOtherPicture(){
+        PhotoObject p = PhotoObjectTestUtils.iceDivingPO();
+        PhotoObjectStoredInDatabase other = PhotoObjectTestUtils.convertToStoredInDatabase(PhotoObjectTestUtils.paulVanDykPO());
+        other.updatePhotoObject(p);
+    }
+
+    @Test
+    public void thumbnailIsDecodedAgainAfterEviction(){
+        PhotoObject p = getRandomPhotoObject();
+        Bitmap thumbnailBeforeEviction = p.getThumbnail();
+        ThumbnailCache.getInstance().clear();
+        Assert.assertEquals(ThumbnailCache.getInstance().sizeInBytes(), 0);
+        Assert.assertEquals(p.getThumbnail().sameAs(thumbnailBeforeEviction), true);
+        Assert.assertEquals(ThumbnailCache.getInstance().sizeInBytes() > 0, true);
+    }
+
+    @Test
+    public void thumbnailIsSharedAndImmutable(){
+        PhotoObject p = getRandomPhotoObject();
+        // the views all show the same instance, which they can't modify
+        Assert.assertEquals(p.getThumbnail() == p.getThumbnail(), true);
+        Assert.assertEquals(p.getThumbnail().isMutable(), false);
+    }
+
+    @Test
+    public void fullSizeImagesAreDroppedWhenTheAppIsHidden(){
+        PhotoObject p = getRandomPhotoObject();
+        FullSizeImageCache.getInstance().put("downloadedPicture", Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        Assert.assertEquals(FullSizeImageCache.getInstance().get("downloadedPicture") != null, true);
+        FullSizeImageCache.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        Assert.assertEquals(FullSizeImageCache.getInstance().sizeInBytes(), 0);
+        // a picture taken on the device can't be downloaded again, it keeps its image
+        Assert.assertEquals(p.hasFullSizeImage(), true);
     }
 
     @Test
@@ -211,4 +384,21 @@ public class PhotoObjectTests {
         Assert.assertEquals(po.getLongitude(), longitude);
         Assert.assertEquals(po.getPictureId().length(), DBref.push().getKey().length());
     }
+
+    /** logs a mock user in, whose index of votes and reports is used by the PhotoObjects */
+    private static MockUser_forTests logInMockUser(String userId){
+        return logInMockUser(userId, true);
+    }
+
+    /** @param isRetrievedFromDB false for a user whose index of votes and reports is still being loaded */
+    private static MockUser_forTests logInMockUser(String userId, boolean isRetrievedFromDB){
+        if(UserManager.instanceExists()){
+            UserManager.getInstance().destroyUser();
+        }
+        UserManager.initialize();
+        MockUser_forTests user = new MockUser_forTests("Julius", "Caesar", userId, 1000,
+                new HashMap<String, Long>(), true, isRetrievedFromDB);
+        UserManager.getInstance().setMockUser(user);
+        return user;
+    }
 }
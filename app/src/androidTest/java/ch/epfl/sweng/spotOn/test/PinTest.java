@@ -33,6 +33,15 @@ public class PinTest {
         }
     }
 
+    @Test
+    public void changingAccessibilityChangesColor() throws Exception {
+        Pin pin = new Pin(photo2, false);
+        pin.setAccessibility(true);
+        if (!pin.getAccessibility() || pin.getColor() != pin1.getColor() || pin.getZDepth() != pin1.getZDepth()) {
+            throw new AssertionError("an accessible pin should look like the other accessible pins");
+        }
+    }
+
     public static boolean areEquals(Pin onePin, Pin anotherPin){
         return onePin.getAccessibility() == anotherPin.getAccessibility() &&
                 PhotoObjectTestUtils.areEquals(onePin.getPhotoObject(), anotherPin.getPhotoObject());
@@ -0,0 +1,211 @@
+package ch.epfl.sweng.spotOn.test.gui;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.GridView;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import ch.epfl.sweng.spotOn.FirebaseConnectionTracker.ConcreteFirebaseConnectionTracker;
+import ch.epfl.sweng.spotOn.R;
+import ch.epfl.sweng.spotOn.gui.TabActivity;
+import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
+import ch.epfl.sweng.spotOn.localisation.ConcreteLocationTracker;
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+import ch.epfl.sweng.spotOn.test.util.MockLocationTracker_forTest;
+import ch.epfl.sweng.spotOn.user.UserManager;
+import ch.epfl.sweng.spotOn.utils.BitmapUtils;
+import ch.epfl.sweng.spotOn.utils.ServicesChecker;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+
+/**
+ * Measures the frame times of the picture grid while flinging through 3000 thumbnails, and checks that a refresh of
+ * the database keeps the scroll position of the grid. The scroll must keep up with a 60 fps display : at most one
+ * frame in 20 may miss its vsync, and none may freeze the grid for more than 100ms
+ */
+@RunWith(AndroidJUnit4.class)
+public class GridScrollFrameTimeTest {
+
+    private final static int NB_PHOTOS = 3000;
+    private final static int THUMBNAIL_SIZE = 128;
+    private final static double LATITUDE = 46.52;
+    private final static double LONGITUDE = 6.56;
+    private final static long GRID_READY_TIMEOUT = 20000; // in ms
+    private final static long SCROLL_DURATION = 4000; // in ms
+    private final static long FRAME_INTERVAL = 16666667; // in ns, at 60 fps
+    private final static double MAX_SLOW_FRAMES_RATIO = 0.05;
+    private final static long MAX_FRAME_INTERVAL = 6 * FRAME_INTERVAL; // ~100ms
+
+    private final List<Long> mFrameIntervals = new ArrayList<>();
+    private long mLastFrameTime;
+    private boolean mMeasuring;
+
+    @Rule
+    public ActivityTestRule<TabActivity> mActivityTestRule = new ActivityTestRule<TabActivity>(TabActivity.class){
+        @Override
+        public void beforeActivityLaunched(){
+            if(ConcreteLocationTracker.instanceExists()){
+                ConcreteLocationTracker.destroyInstance();
+            }
+            if(UserManager.instanceExists()){
+                UserManager.getInstance().destroyUser();
+            }
+            MockLocationTracker_forTest mockLocationTracker = new MockLocationTracker_forTest(LATITUDE, LONGITUDE);
+            ConcreteLocationTracker.setMockLocationTracker(mockLocationTracker);
+            LocalDatabase.initialize(mockLocationTracker);
+            UserManager.initialize();
+            ServicesChecker.initialize(ConcreteLocationTracker.getInstance(), LocalDatabase.getInstance(), UserManager.getInstance(), ConcreteFirebaseConnectionTracker.getInstance());
+            ServicesChecker.getInstance().allowDisplayingToasts(false);
+            UserManager.getInstance().setUserFromFacebook("Sweng", "Sweng", "114110565725225");
+        }
+    };
+
+    @Test
+    public void flingingThroughManyThumbnailsKeepsFramesShort() throws InterruptedException {
+        onView(withText(R.string.tab_aroundme)).perform(click());
+        final GridView gridView = (GridView) mActivityTestRule.getActivity().findViewById(R.id.gridview);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LocalDatabase.getInstance().clear();
+                for(int i = 0; i < NB_PHOTOS; i++){
+                    // all different, so that each cell has its own thumbnail to decode
+                    Bitmap thumbnail = Bitmap.createBitmap(THUMBNAIL_SIZE, THUMBNAIL_SIZE, Bitmap.Config.ARGB_8888);
+                    thumbnail.eraseColor(Color.rgb(i % 256, (i / 256) % 256, 128));
+                    LocalDatabase.getInstance().addPhotoObject(new PhotoObject("link"+i, BitmapUtils.compressBitmap(thumbnail),
+                            "gridPhoto"+i, "author", "photo"+i, new Date().getTime(), LATITUDE, LONGITUDE, 1, 1, 0));
+                }
+                LocalDatabase.getInstance().notifyListeners();
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + GRID_READY_TIMEOUT;
+        while(gridView.getCount() != NB_PHOTOS && System.currentTimeMillis() < deadline){
+            Thread.sleep(200);
+        }
+        if(gridView.getCount() != NB_PHOTOS){
+            throw new AssertionError("the grid should show "+NB_PHOTOS+" photos, got "+gridView.getCount());
+        }
+
+        startMeasuringFrames();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                gridView.smoothScrollToPosition(NB_PHOTOS - 1);
+            }
+        });
+        Thread.sleep(SCROLL_DURATION);
+        List<Long> frameIntervals = stopMeasuringFrames();
+
+        long maxInterval = 0;
+        long totalInterval = 0;
+        int nbSlowFrames = 0;
+        for(long interval : frameIntervals){
+            maxInterval = Math.max(maxInterval, interval);
+            totalInterval += interval;
+            // a frame missed at 60 fps
+            nbSlowFrames += interval > 2 * FRAME_INTERVAL ? 1 : 0;
+        }
+        String frameTimes = NB_PHOTOS+" photos : "+frameIntervals.size()+" frames, average "
+                + (frameIntervals.isEmpty() ? 0 : totalInterval / frameIntervals.size() / 1000) + "us, max "
+                + maxInterval / 1000 + "us, "+nbSlowFrames+" frames over 33ms";
+        Log.i("GridScrollFrameTime", frameTimes);
+        if(frameIntervals.isEmpty()){
+            throw new AssertionError("no frame was drawn during the scroll");
+        }
+        if(nbSlowFrames > MAX_SLOW_FRAMES_RATIO * frameIntervals.size() || maxInterval > MAX_FRAME_INTERVAL){
+            throw new AssertionError("the scroll is janky, "+frameTimes);
+        }
+
+        // a refresh doesn't reset the scroll
+        final int[] firstVisiblePositions = new int[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                gridView.setSelection(NB_PHOTOS / 2);
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                firstVisiblePositions[0] = gridView.getFirstVisiblePosition();
+                LocalDatabase.getInstance().notifyListeners();
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                firstVisiblePositions[1] = gridView.getFirstVisiblePosition();
+            }
+        });
+        if(firstVisiblePositions[0] != firstVisiblePositions[1]){
+            throw new AssertionError("the grid scrolled from "+firstVisiblePositions[0]+" to "+firstVisiblePositions[1]+" on refresh");
+        }
+    }
+
+    @After
+    public void clearDatabase(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LocalDatabase.getInstance().clear();
+            }
+        });
+        ConcreteLocationTracker.destroyInstance();
+    }
+
+
+    private void startMeasuringFrames(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mMeasuring = true;
+                mLastFrameTime = 0;
+                mFrameIntervals.clear();
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if(mLastFrameTime != 0){
+                            mFrameIntervals.add(frameTimeNanos - mLastFrameTime);
+                        }
+                        mLastFrameTime = frameTimeNanos;
+                        if(mMeasuring){
+                            Choreographer.getInstance().postFrameCallback(this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /** @return the intervals between the frames since startMeasuringFrames(), in ns */
+    private List<Long> stopMeasuringFrames(){
+        final List<Long> frameIntervals = new ArrayList<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mMeasuring = false;
+                frameIntervals.addAll(mFrameIntervals);
+            }
+        });
+        return frameIntervals;
+    }
+}
@@ -0,0 +1,217 @@
+package ch.epfl.sweng.spotOn.test.gui;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import ch.epfl.sweng.spotOn.FirebaseConnectionTracker.ConcreteFirebaseConnectionTracker;
+import ch.epfl.sweng.spotOn.R;
+import ch.epfl.sweng.spotOn.gui.MapFragment;
+import ch.epfl.sweng.spotOn.gui.TabActivity;
+import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
+import ch.epfl.sweng.spotOn.localisation.ConcreteLocationTracker;
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+import ch.epfl.sweng.spotOn.test.util.MockLocationTracker_forTest;
+import ch.epfl.sweng.spotOn.user.UserManager;
+import ch.epfl.sweng.spotOn.utils.BitmapUtils;
+import ch.epfl.sweng.spotOn.utils.ServicesChecker;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+
+/**
+ * Measures the frame times of the map while its 2000 pins are refreshed, and checks that a refresh without changes
+ * doesn't touch the pins. Only the changed pins are updated, so a refresh must not freeze the map for more than 100ms,
+ * and the frames must on average stay under two vsyncs of a 60 fps display
+ */
+@RunWith(AndroidJUnit4.class)
+public class MapRefreshFrameTimeTest {
+
+    private final static int NB_PINS = 2000;
+    private final static int NB_REFRESHES = 10;
+    private final static double LATITUDE = 46.52;
+    private final static double LONGITUDE = 6.56;
+    private final static long MAP_READY_TIMEOUT = 20000; // in ms
+    private final static long FRAME_INTERVAL = 16666667; // in ns, at 60 fps
+    private final static long MAX_AVERAGE_FRAME_INTERVAL = 2 * FRAME_INTERVAL;
+    private final static long MAX_FRAME_INTERVAL = 6 * FRAME_INTERVAL; // ~100ms
+
+    private final List<Long> mFrameIntervals = new ArrayList<>();
+    private long mLastFrameTime;
+    private boolean mMeasuring;
+
+    @Rule
+    public ActivityTestRule<TabActivity> mActivityTestRule = new ActivityTestRule<TabActivity>(TabActivity.class){
+        @Override
+        public void beforeActivityLaunched(){
+            if(ConcreteLocationTracker.instanceExists()){
+                ConcreteLocationTracker.destroyInstance();
+            }
+            if(UserManager.instanceExists()){
+                UserManager.getInstance().destroyUser();
+            }
+            MockLocationTracker_forTest mockLocationTracker = new MockLocationTracker_forTest(LATITUDE, LONGITUDE);
+            ConcreteLocationTracker.setMockLocationTracker(mockLocationTracker);
+            LocalDatabase.initialize(mockLocationTracker);
+            UserManager.initialize();
+            ServicesChecker.initialize(ConcreteLocationTracker.getInstance(), LocalDatabase.getInstance(), UserManager.getInstance(), ConcreteFirebaseConnectionTracker.getInstance());
+            ServicesChecker.getInstance().allowDisplayingToasts(false);
+            UserManager.getInstance().setUserFromFacebook("Sweng", "Sweng", "114110565725225");
+        }
+    };
+
+    @Test
+    public void refreshingManyPinsKeepsFramesShort() throws InterruptedException {
+        onView(withText(R.string.tab_map)).perform(click());
+        final MapFragment mapFragment = (MapFragment) mActivityTestRule.getActivity().getSupportFragmentManager().getFragments().get(2);
+
+        Bitmap thumbnail = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+        thumbnail.eraseColor(Color.BLUE);
+        final byte[] thumbnailBytes = BitmapUtils.compressBitmap(thumbnail);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LocalDatabase.getInstance().clear();
+                for(int i = 0; i < NB_PINS; i++){
+                    // spread over ~2km around the user
+                    double latitude = LATITUDE + ((i % 50) - 25) * 0.0008;
+                    double longitude = LONGITUDE + ((i / 50) - 20) * 0.0012;
+                    LocalDatabase.getInstance().addPhotoObject(new PhotoObject("link"+i, thumbnailBytes, "mapPin"+i,
+                            "author", "pin"+i, new Date().getTime(), latitude, longitude, 1, 1, 0));
+                }
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + MAP_READY_TIMEOUT;
+        while(mapFragment.getNbPlacedPins() != NB_PINS && System.currentTimeMillis() < deadline){
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    LocalDatabase.getInstance().notifyListeners();
+                }
+            });
+            Thread.sleep(500);
+        }
+        if(mapFragment.getNbPlacedPins() != NB_PINS){
+            throw new AssertionError("the map should hold "+NB_PINS+" pins, got "+mapFragment.getNbPlacedPins());
+        }
+
+        startMeasuringFrames();
+        for(int i = 0; i < NB_REFRESHES; i++){
+            // every other refresh removes a tenth of the photos, the others bring them back
+            final int round = i;
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    for(int j = 0; j < NB_PINS; j += 10){
+                        if(round % 2 == 0){
+                            LocalDatabase.getInstance().removePhotoObject("mapPin"+j);
+                        }
+                    }
+                    if(round % 2 == 1){
+                        for(int j = 0; j < NB_PINS; j += 10){
+                            LocalDatabase.getInstance().addPhotoObject(new PhotoObject("link"+j, thumbnailBytes,
+                                    "mapPin"+j, "author", "pin"+j, new Date().getTime(),
+                                    LATITUDE, LONGITUDE + j * 0.000001, 1, 1, 0));
+                        }
+                    }
+                    LocalDatabase.getInstance().notifyListeners();
+                }
+            });
+            Thread.sleep(300);
+        }
+        List<Long> frameIntervals = stopMeasuringFrames();
+
+        long maxInterval = 0;
+        long totalInterval = 0;
+        for(long interval : frameIntervals){
+            maxInterval = Math.max(maxInterval, interval);
+            totalInterval += interval;
+        }
+        String frameTimes = NB_PINS+" pins, "+NB_REFRESHES+" refreshes : "+frameIntervals.size()+" frames, average "
+                + (frameIntervals.isEmpty() ? 0 : totalInterval / frameIntervals.size() / 1000) + "us, max "
+                + maxInterval / 1000 + "us";
+        Log.i("MapRefreshFrameTime", frameTimes);
+        if(frameIntervals.isEmpty()){
+            throw new AssertionError("no frame was drawn during the refreshes");
+        }
+        if(totalInterval / frameIntervals.size() > MAX_AVERAGE_FRAME_INTERVAL || maxInterval > MAX_FRAME_INTERVAL){
+            throw new AssertionError("the refreshes make the map janky, "+frameTimes);
+        }
+
+        // an unchanged database leaves the pins untouched
+        final int[] nbPins = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LocalDatabase.getInstance().notifyListeners();
+                nbPins[0] = mapFragment.getNbPlacedPins();
+            }
+        });
+        if(nbPins[0] != NB_PINS){
+            throw new AssertionError("all the pins should be back after the refreshes, got "+nbPins[0]);
+        }
+    }
+
+    @After
+    public void clearDatabase(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LocalDatabase.getInstance().clear();
+            }
+        });
+        ConcreteLocationTracker.destroyInstance();
+    }
+
+
+    private void startMeasuringFrames(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mMeasuring = true;
+                mLastFrameTime = 0;
+                mFrameIntervals.clear();
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if(mLastFrameTime != 0){
+                            mFrameIntervals.add(frameTimeNanos - mLastFrameTime);
+                        }
+                        mLastFrameTime = frameTimeNanos;
+                        if(mMeasuring){
+                            Choreographer.getInstance().postFrameCallback(this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /** @return the intervals between the frames since startMeasuringFrames(), in ns */
+    private List<Long> stopMeasuringFrames(){
+        final List<Long> frameIntervals = new ArrayList<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mMeasuring = false;
+                frameIntervals.addAll(mFrameIntervals);
+            }
+        });
+        return frameIntervals;
+    }
+}
@@ -0,0 +1,41 @@
+package ch.epfl.sweng.spotOn.test.user;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ch.epfl.sweng.spotOn.user.KarmaService;
+
+/**
+ * Checks that the karma given to the same user within the coalescing window is summed before being written
+ */
+@RunWith(AndroidJUnit4.class)
+public class KarmaServiceTest {
+
+    @Test
+    public void karmaOfTheSameUserIsCoalesced(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                KarmaService karmaService = KarmaService.getInstance();
+                long before = karmaService.getPendingKarma("karmaTestAuthor1");
+                karmaService.addKarma("karmaTestAuthor1", 10);
+                karmaService.addKarma("karmaTestAuthor1", -5);
+                karmaService.addKarma("karmaTestAuthor2", 10);
+                if(karmaService.getPendingKarma("karmaTestAuthor1") != before + 5){
+                    throw new AssertionError("the increments of the same user should be summed");
+                }
+                if(karmaService.getPendingKarma("karmaTestAuthorWithoutKarma") != 0){
+                    throw new AssertionError("no karma should be pending for this user");
+                }
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesNullUser(){
+        KarmaService.getInstance().addKarma(null, 10);
+    }
+}
@@ -1,6 +1,9 @@
 package ch.epfl.sweng.spotOn.test.util;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 import ch.epfl.sweng.spotOn.user.User;
@@ -17,6 +20,8 @@ public class MockUser_forTests implements User {
     private long mKarma;
     private Map<String, Long> mPhotosTaken;
     private boolean mIsRetrievedFromDB;
+    private Map<String, Integer> mVotes;
+    private Set<String> mReportedPictures;
 
     private boolean mIsLoggedIn;
 
@@ -30,6 +35,8 @@ public class MockUser_forTests implements User {
         mPhotosTaken=taken;
         mIsLoggedIn=isLoggedIn;
         mIsRetrievedFromDB = isRetrievedFromDB;
+        mVotes = new HashMap<>();
+        mReportedPictures = new HashSet<>();
     }
 
     @Override
@@ -54,6 +61,20 @@ public class MockUser_forTests implements User {
     @Override
     public void removePhoto(String pictureID){}
 
+    @Override
+    public void setVote(String pictureID, int vote) {
+        if(vote == 0){
+            mVotes.remove(pictureID);
+        }else{
+            mVotes.put(pictureID, vote);
+        }
+    }
+
+    @Override
+    public void addReport(String pictureID) {
+        mReportedPictures.add(pictureID);
+    }
+
     @Override
     public String getFirstName() {
         return mFirstName;
@@ -82,6 +103,22 @@ public class MockUser_forTests implements User {
     @Override
     public boolean getIsRetrievedFromDB(){ return mIsRetrievedFromDB; }
 
+    @Override
+    public int getVote(String pictureID) {
+        Integer vote = mVotes.get(pictureID);
+        return vote == null ? 0 : vote;
+    }
+
+    @Override
+    public boolean hasReported(String pictureID) {
+        return mReportedPictures.contains(pictureID);
+    }
+
+    @Override
+    public Set<String> getReportedPictures() {
+        return new HashSet<>(mReportedPictures);
+    }
+
     @Override
     public void setKarma(long karma) {
         mKarma=karma;
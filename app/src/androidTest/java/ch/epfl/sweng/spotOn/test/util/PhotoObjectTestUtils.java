@@ -55,8 +55,7 @@ public class PhotoObjectTestUtils {
                 BitmapUtils.encodeBitmapAsString(po.getThumbnail()), po.getPictureId(),
                 po.getAuthorId(), po.getPhotoName(), po.getCreatedDate(), po.getExpireDate(),
                 po.getLatitude(), po.getLongitude(), po.getUpvotes(), po.getDownvotes(),
-                po.getReports(), po.getUpvotersList(), po.getDownvotersList(),
-                po.getReportersList());
+                po.getReports());
     }
 
 
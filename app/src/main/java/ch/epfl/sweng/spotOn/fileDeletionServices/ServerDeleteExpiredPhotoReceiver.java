@@ -9,6 +9,8 @@ import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+import ch.epfl.sweng.spotOn.media.PhotoObjectStoredInDatabase;
 import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
 import ch.epfl.sweng.spotOn.singletonReferences.StorageRef;
 
@@ -17,15 +19,29 @@ import ch.epfl.sweng.spotOn.singletonReferences.StorageRef;
  *
  * This class implements the deletion of expired data on the FireBase DataBase. The process is
  * launched when an alarm goes off.
+ * It also moves the voters and reporters still listed in the legacy pictures to the index of each user,
+ * which the clients fetching these pictures can't do.
  *
  */
 public class ServerDeleteExpiredPhotoReceiver extends BroadcastReceiver {
 
     private final String VALUE_TO_CHECK = "expireDate";
+    private final String[] LEGACY_LISTS = {"upvotersList", "downvotersList", "reportersList"};
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        Query query = DatabaseRef.getMediaDirectory().orderByChild(VALUE_TO_CHECK).endAt(System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        // starting at 0 leaves out the pictures without the value, which firebase orders first
+        deleteExpiredPhotos(DatabaseRef.getMediaDirectory().orderByChild(PhotoObject.VOTES_CHILD+"/"+VALUE_TO_CHECK).startAt(0).endAt(now));
+        // the pictures uploaded before the votes had their own child, and not voted on since
+        deleteExpiredPhotos(DatabaseRef.getMediaDirectory().orderByChild(VALUE_TO_CHECK).startAt(0).endAt(now));
+        for(String legacyList : LEGACY_LISTS){
+            // false is the smallest value after null, so only the pictures that still have the list are returned
+            migrateLegacyVoters(DatabaseRef.getMediaDirectory().orderByChild(legacyList).startAt(false));
+        }
+    }
+
+    private void deleteExpiredPhotos(Query query){
         query.addListenerForSingleValueEvent(new ValueEventListener() {
 
             @Override
@@ -42,4 +58,23 @@ public class ServerDeleteExpiredPhotoReceiver extends BroadcastReceiver {
             }
         });
     }
+
+    private void migrateLegacyVoters(Query query){
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                for(DataSnapshot child : dataSnapshot.getChildren()){
+                    PhotoObjectStoredInDatabase legacyPicture = child.getValue(PhotoObjectStoredInDatabase.class);
+                    if(legacyPicture != null){
+                        legacyPicture.migrateLegacyVoters();
+                    }
+                }
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+            }
+        });
+    }
 }
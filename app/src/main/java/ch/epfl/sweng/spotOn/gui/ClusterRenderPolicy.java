@@ -0,0 +1,90 @@
+package ch.epfl.sweng.spotOn.gui;
+
+/**
+ * Immutable rules deciding when the ClusterRenderer groups pins in a cluster : a cluster needs enough pins, and the pins
+ * are never grouped when the map is zoomed close to its maximum zoom. Optionally, the single pins can show the thumbnail
+ * of their picture from a given zoom on.
+ * The zoom dependent part is evaluated once per camera change in a RenderState, read for every cluster of a render pass.
+ */
+public final class ClusterRenderPolicy {
+
+    public final static float NO_THUMBNAIL_MARKERS = Float.POSITIVE_INFINITY;
+    public final static ClusterRenderPolicy DEFAULT = new ClusterRenderPolicy(5, 3);
+
+    private final int mMinClusterSize;
+    private final float mUnclusteredZoomLevels;
+    private final float mThumbnailMarkersZoom;
+
+
+    /**
+     * @param minClusterSize the minimum number of pins rendered as a cluster
+     * @param unclusteredZoomLevels the pins are never grouped when the zoom is closer than this to the maximum zoom of the map
+     */
+    public ClusterRenderPolicy(int minClusterSize, float unclusteredZoomLevels){
+        this(minClusterSize, unclusteredZoomLevels, NO_THUMBNAIL_MARKERS);
+    }
+
+    /**
+     * @param thumbnailMarkersZoom the single pins show the thumbnail of their picture from this zoom on,
+     *                             NO_THUMBNAIL_MARKERS to always show colored pins
+     */
+    public ClusterRenderPolicy(int minClusterSize, float unclusteredZoomLevels, float thumbnailMarkersZoom){
+        if(minClusterSize < 2){
+            throw new IllegalArgumentException("a cluster should contain at least 2 pins, was "+minClusterSize);
+        }
+        if(unclusteredZoomLevels < 0){
+            throw new IllegalArgumentException("the number of unclustered zoom levels can't be negative, was "+unclusteredZoomLevels);
+        }
+        mMinClusterSize = minClusterSize;
+        mUnclusteredZoomLevels = unclusteredZoomLevels;
+        mThumbnailMarkersZoom = thumbnailMarkersZoom;
+    }
+
+
+//PUBLIC METHODS
+    /** @return the state to use for the render passes while the camera stays at this zoom */
+    public RenderState stateFor(float zoom, float maxZoom){
+        return new RenderState(zoom, maxZoom - mUnclusteredZoomLevels >= zoom, zoom >= mThumbnailMarkersZoom);
+    }
+
+    public int getMinClusterSize(){
+        return mMinClusterSize;
+    }
+
+    public float getUnclusteredZoomLevels(){
+        return mUnclusteredZoomLevels;
+    }
+
+    public float getThumbnailMarkersZoom(){
+        return mThumbnailMarkersZoom;
+    }
+
+
+    /**
+     * Render policy for a given camera zoom
+     */
+    public final class RenderState {
+
+        private final float mZoom;
+        private final boolean mClustersAllowed;
+        private final boolean mThumbnailMarkers;
+
+        private RenderState(float zoom, boolean clustersAllowed, boolean thumbnailMarkers){
+            mZoom = zoom;
+            mClustersAllowed = clustersAllowed;
+            mThumbnailMarkers = thumbnailMarkers;
+        }
+
+        public boolean shouldRenderAsCluster(int clusterSize){
+            return mClustersAllowed && clusterSize >= mMinClusterSize;
+        }
+
+        public boolean useThumbnailMarkers(){
+            return mThumbnailMarkers;
+        }
+
+        public float getZoom(){
+            return mZoom;
+        }
+    }
+}
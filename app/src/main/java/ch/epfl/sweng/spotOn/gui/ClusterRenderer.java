@@ -2,12 +2,8 @@ package ch.epfl.sweng.spotOn.gui;
 
 import android.content.Context;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.BitmapDescriptor;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.maps.android.clustering.Cluster;
@@ -23,10 +19,24 @@ import java.util.Map;
  */
 public class ClusterRenderer extends DefaultClusterRenderer<Pin> {
 
-    private GoogleMap mMap;
+    private final static int THUMBNAIL_MARKER_SIZE = 48;   // diameter of the thumbnail markers, in dp
+
     //Map of marker titles -> pins
     private Map<String, Pin> mMarkerPinMap;
-    private boolean isVeryZoomed = false;
+    private final ClusterRenderPolicy mPolicy;
+    //read from the render thread of the cluster manager, replaced from the main thread when the camera changes
+    private volatile ClusterRenderPolicy.RenderState mRenderState;
+    private final int mThumbnailMarkerSizeInPixels;
+    //shows the thumbnail of a marker once it is decoded, if the markers still show thumbnails by then
+    private final MarkerIconCache.OnThumbnailIconReadyListener mThumbnailIconListener =
+            new MarkerIconCache.OnThumbnailIconReadyListener() {
+                @Override
+                public void onThumbnailIconReady(Pin pin) {
+                    if(mRenderState.useThumbnailMarkers()){
+                        restyle(pin);
+                    }
+                }
+            };
 
     /**
      * Custom clusterRenderer
@@ -36,9 +46,48 @@ public class ClusterRenderer extends DefaultClusterRenderer<Pin> {
      */
     public ClusterRenderer(Context context, GoogleMap map,
                              ClusterManager<Pin> clusterManager) {
+        this(context, map, clusterManager, ClusterRenderPolicy.DEFAULT);
+    }
+
+    /**
+     * Custom clusterRenderer, grouping the pins according to the given policy. Must be created on the main thread
+     */
+    public ClusterRenderer(Context context, GoogleMap map,
+                           ClusterManager<Pin> clusterManager, ClusterRenderPolicy policy) {
         super(context, map, clusterManager);
-        mMap = map;
         mMarkerPinMap = new HashMap<>();
+        mPolicy = policy;
+        mThumbnailMarkerSizeInPixels = Math.round(THUMBNAIL_MARKER_SIZE * context.getResources().getDisplayMetrics().density);
+        onCameraChanged(map.getCameraPosition().zoom, map.getMaxZoomLevel());
+    }
+
+    /**
+     * Should be called on the main thread each time the camera changes, before the clusters are rendered again
+     */
+    public void onCameraChanged(float zoom, float maxZoom){
+        ClusterRenderPolicy.RenderState previousState = mRenderState;
+        mRenderState = mPolicy.stateFor(zoom, maxZoom);
+        // the markers already on the map keep their icon until they are rendered again, update them if the style changed
+        if(previousState != null && previousState.useThumbnailMarkers() != mRenderState.useThumbnailMarkers()){
+            for(Pin pin : mMarkerPinMap.values()){
+                Marker marker = getMarker(pin);
+                if(marker != null){
+                    marker.setIcon(iconOf(pin));
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the marker of the pin after its accessibility changed, if the pin is currently shown as a single marker.
+     * Pins grouped in a cluster get the right style when they are rendered. Must be called on the main thread
+     */
+    public void restyle(Pin pin){
+        Marker marker = getMarker(pin);
+        if(marker != null){
+            marker.setIcon(iconOf(pin));
+            marker.setZIndex(pin.getZDepth());
+        }
     }
 
     /**
@@ -56,7 +105,7 @@ public class ClusterRenderer extends DefaultClusterRenderer<Pin> {
     protected void onBeforeClusterItemRendered(Pin pin,
                                                MarkerOptions markerOptions) {
         markerOptions.title(pin.getTitle());
-        BitmapDescriptor markerDescriptor = BitmapDescriptorFactory.defaultMarker(pin.getColor());
+        BitmapDescriptor markerDescriptor = iconOf(pin);
         markerOptions.icon(markerDescriptor);
         markerOptions.zIndex(pin.getZDepth());
     }
@@ -78,19 +127,14 @@ public class ClusterRenderer extends DefaultClusterRenderer<Pin> {
      */
     @Override
     protected boolean shouldRenderAsCluster(Cluster cluster) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                computeZoom();
-            }
-        });
-        //return isVeryUnZoomed || cluster.getSize() >=4  && !isVeryZoomed;
-        return cluster.getSize() >= 5  && !isVeryZoomed;
+        return mRenderState.shouldRenderAsCluster(cluster.getSize());
     }
 
-    private void computeZoom(){
-        float zoomLevel = mMap.getCameraPosition().zoom;
-        isVeryZoomed = mMap.getMaxZoomLevel()-3 < zoomLevel;
-        //isVeryUnZoomed = 12.5 >= zoomLevel;
+    /** @return the icon of the pin in the current render state, shared with the other pins of the same style */
+    private BitmapDescriptor iconOf(Pin pin){
+        if(mRenderState.useThumbnailMarkers()){
+            return MarkerIconCache.getInstance().getThumbnailIcon(pin, mThumbnailMarkerSizeInPixels, mThumbnailIconListener);
+        }
+        return MarkerIconCache.getInstance().getPinIcon(pin.getColor());
     }
 }
\ No newline at end of file
@@ -0,0 +1,346 @@
+package ch.epfl.sweng.spotOn.gui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchy of the clusters of a set of items for every integer zoom level of the map, so that the clusters of a zoom
+ * level are read instead of being computed again at each camera move.
+ * Each item is a leaf, grouped in exactly one cluster per zoom level : a cluster of level z gathers the clusters of
+ * level z+1 that were within CLUSTER_RADIUS pixels of it (at zoom z) when they were created, a greedy clustering
+ * like the default one of android-maps-utils. Inserting or removing an item only updates its ancestors.
+ * The clusters of each level are kept in a grid, so that those of the visible part of the map can be queried.
+ * Pure java (positions are given in degrees), not thread-safe.
+ * @param <T> the type of the items, identified by reference
+ */
+public class ClusterTree<T> {
+
+    public final static int CLUSTER_RADIUS = 100;  // in pixels, like the default algorithm of android-maps-utils
+    private final static int TILE_SIZE = 256;      // in pixels, size of the whole world at zoom 0
+
+    private final int mMinZoom;
+    private final int mMaxZoom;
+    private final List<Map<Long, List<Node<T>>>> mLevels;   // clusters of each zoom level, by cell of size radius(zoom)
+    private final Map<T, Node<T>> mLeaves;
+    private int mVersion;   // incremented at each change, so that the users of the tree know when to read it again
+
+
+    /**
+     * @param minZoom the lowest zoom level for which the clusters are kept, queries below return its clusters
+     * @param maxZoom the highest zoom level for which the clusters are kept, queries above return its clusters
+     */
+    public ClusterTree(int minZoom, int maxZoom){
+        if(minZoom < 0 || maxZoom < minZoom){
+            throw new IllegalArgumentException("invalid zoom range ["+minZoom+", "+maxZoom+"]");
+        }
+        mMinZoom = minZoom;
+        mMaxZoom = maxZoom;
+        mLevels = new ArrayList<>(maxZoom - minZoom + 1);
+        for(int zoom = minZoom; zoom <= maxZoom; zoom++){
+            mLevels.add(new HashMap<Long, List<Node<T>>>());
+        }
+        mLeaves = new IdentityHashMap<>();
+        mVersion = 0;
+    }
+
+
+//PUBLIC METHODS
+    /** adds the item in the clusters of every zoom level. Nothing happens if the tree already contains it */
+    public void insert(T item, double latitude, double longitude){
+        if(mLeaves.containsKey(item)){
+            return;
+        }
+        double x = projectLongitude(longitude);
+        double y = projectLatitude(latitude);
+        Node<T> child = new Node<>(item, x, y, mMaxZoom + 1);
+        mLeaves.put(item, child);
+        for(int zoom = mMaxZoom; zoom >= mMinZoom; zoom--){
+            Node<T> cluster = nearestCluster(zoom, x, y);
+            if(cluster != null){
+                // the rest of the hierarchy already exists, only the counts and positions of the ancestors change
+                cluster.mChildren.add(child);
+                child.mParent = cluster;
+                for(Node<T> ancestor = cluster; ancestor != null; ancestor = ancestor.mParent){
+                    moveCentroid(ancestor, x, y, 1);
+                }
+                mVersion++;
+                return;
+            }
+            cluster = new Node<>(null, x, y, zoom);
+            cluster.mChildren.add(child);
+            cluster.mSize = 1;
+            child.mParent = cluster;
+            addToLevel(cluster);
+            child = cluster;
+        }
+        mVersion++;
+    }
+
+    /** removes the item from the tree, and the clusters it was alone in. Nothing happens if the tree doesn't contain it */
+    public void remove(T item){
+        Node<T> leaf = mLeaves.remove(item);
+        if(leaf == null){
+            return;
+        }
+        Node<T> cluster = leaf.mParent;
+        cluster.mChildren.remove(leaf);
+        while(cluster != null){
+            Node<T> parent = cluster.mParent;
+            if(cluster.mSize == 1){
+                // the item was alone in this cluster
+                removeFromLevel(cluster);
+                if(parent != null){
+                    parent.mChildren.remove(cluster);
+                }
+                cluster.mSize = 0;
+            }else{
+                moveCentroid(cluster, leaf.mX, leaf.mY, -1);
+            }
+            cluster = parent;
+        }
+        mVersion++;
+    }
+
+    public void clear(){
+        for(Map<Long, List<Node<T>>> level : mLevels){
+            level.clear();
+        }
+        mLeaves.clear();
+        mVersion++;
+    }
+
+    public boolean contains(T item){
+        return mLeaves.containsKey(item);
+    }
+
+    public int size(){
+        return mLeaves.size();
+    }
+
+    /** @return the number of changes since the creation of the tree */
+    public int getVersion(){
+        return mVersion;
+    }
+
+    /** @return the items of the tree, in no particular order */
+    public List<T> getItems(){
+        return new ArrayList<>(mLeaves.keySet());
+    }
+
+    /** @return the clusters of the zoom level (rounded down, and clamped to the zoom range of the tree) */
+    public List<Node<T>> getClusters(double zoom){
+        List<Node<T>> clusters = new ArrayList<>();
+        for(List<Node<T>> cell : level(zoom).values()){
+            clusters.addAll(cell);
+        }
+        return clusters;
+    }
+
+    /**
+     * @return the clusters of the zoom level whose position is inside the given bounds, in degrees.
+     * The bounds can cross the antimeridian (west > east)
+     */
+    public List<Node<T>> getClusters(double zoom, double south, double west, double north, double east){
+        if(west > east){
+            List<Node<T>> clusters = getClusters(zoom, south, west, north, 180);
+            clusters.addAll(getClusters(zoom, south, -180, north, east));
+            return clusters;
+        }
+        int intZoom = clampZoom(zoom);
+        Map<Long, List<Node<T>>> level = mLevels.get(intZoom - mMinZoom);
+        double cellSize = radius(intZoom);
+        double minX = projectLongitude(west);
+        double maxX = projectLongitude(east);
+        double minY = projectLatitude(north);   // y grows towards the south
+        double maxY = projectLatitude(south);
+        List<Node<T>> clusters = new ArrayList<>();
+        long nbCells = ((long) (maxX / cellSize) - (long) (minX / cellSize) + 1) * ((long) (maxY / cellSize) - (long) (minY / cellSize) + 1);
+        if(nbCells > level.size()){
+            // large bounds compared to the number of clusters : faster to go through all of them
+            for(List<Node<T>> cell : level.values()){
+                addClustersInBounds(cell, minX, minY, maxX, maxY, clusters);
+            }
+        }else{
+            for(int i = (int) (minX / cellSize); i <= (int) (maxX / cellSize); i++){
+                for(int j = (int) (minY / cellSize); j <= (int) (maxY / cellSize); j++){
+                    List<Node<T>> cell = level.get(cellKey(i, j));
+                    if(cell != null){
+                        addClustersInBounds(cell, minX, minY, maxX, maxY, clusters);
+                    }
+                }
+            }
+        }
+        return clusters;
+    }
+
+
+//PRIVATE HELPERS
+    private Map<Long, List<Node<T>>> level(double zoom){
+        return mLevels.get(clampZoom(zoom) - mMinZoom);
+    }
+
+    private int clampZoom(double zoom){
+        return Math.max(mMinZoom, Math.min(mMaxZoom, (int) Math.floor(zoom)));
+    }
+
+    /** @return the width of a cluster at this zoom level, in world coordinates (the world is [0, 1[ x [0, 1[) */
+    private static double radius(int zoom){
+        return (double) CLUSTER_RADIUS / TILE_SIZE / (1L << zoom);
+    }
+
+    /** @return the cluster of this zoom level closest to the point and at most radius(zoom) away from it, null if there is none */
+    private Node<T> nearestCluster(int zoom, double x, double y){
+        Map<Long, List<Node<T>>> level = mLevels.get(zoom - mMinZoom);
+        double radius = radius(zoom);
+        int i = (int) (x / radius);
+        int j = (int) (y / radius);
+        Node<T> nearest = null;
+        double nearestDistance = radius * radius;
+        for(int di = -1; di <= 1; di++){
+            for(int dj = -1; dj <= 1; dj++){
+                List<Node<T>> cell = level.get(cellKey(i + di, j + dj));
+                if(cell == null){
+                    continue;
+                }
+                for(Node<T> cluster : cell){
+                    double dx = cluster.mX - x;
+                    double dy = cluster.mY - y;
+                    double distance = dx * dx + dy * dy;
+                    if(distance <= nearestDistance){
+                        nearest = cluster;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /** adds (sign = 1) or removes (sign = -1) a point from the cluster, whose position is the average of its items */
+    private void moveCentroid(Node<T> cluster, double x, double y, int sign){
+        int newSize = cluster.mSize + sign;
+        double newX = (cluster.mX * cluster.mSize + sign * x) / newSize;
+        double newY = (cluster.mY * cluster.mSize + sign * y) / newSize;
+        double radius = radius(cluster.mZoom);
+        boolean changesCell = (int) (newX / radius) != (int) (cluster.mX / radius) || (int) (newY / radius) != (int) (cluster.mY / radius);
+        if(changesCell){
+            removeFromLevel(cluster);
+        }
+        cluster.mX = newX;
+        cluster.mY = newY;
+        cluster.mSize = newSize;
+        if(changesCell){
+            addToLevel(cluster);
+        }
+    }
+
+    private void addToLevel(Node<T> cluster){
+        Map<Long, List<Node<T>>> level = mLevels.get(cluster.mZoom - mMinZoom);
+        double radius = radius(cluster.mZoom);
+        long key = cellKey((int) (cluster.mX / radius), (int) (cluster.mY / radius));
+        List<Node<T>> cell = level.get(key);
+        if(cell == null){
+            cell = new ArrayList<>(2);
+            level.put(key, cell);
+        }
+        cell.add(cluster);
+    }
+
+    private void removeFromLevel(Node<T> cluster){
+        Map<Long, List<Node<T>>> level = mLevels.get(cluster.mZoom - mMinZoom);
+        double radius = radius(cluster.mZoom);
+        long key = cellKey((int) (cluster.mX / radius), (int) (cluster.mY / radius));
+        List<Node<T>> cell = level.get(key);
+        if(cell != null){
+            cell.remove(cluster);
+            if(cell.isEmpty()){
+                level.remove(key);
+            }
+        }
+    }
+
+    private static <T> void addClustersInBounds(List<Node<T>> cell, double minX, double minY, double maxX, double maxY, List<Node<T>> result){
+        for(Node<T> cluster : cell){
+            if(cluster.mX >= minX && cluster.mX <= maxX && cluster.mY >= minY && cluster.mY <= maxY){
+                result.add(cluster);
+            }
+        }
+    }
+
+    private static long cellKey(int i, int j){
+        return ((long) i << 32) | (j & 0xffffffffL);
+    }
+
+    /** spherical mercator projection, the world being [0, 1[ x [0, 1[ */
+    private static double projectLongitude(double longitude){
+        return Math.min(Math.max(longitude / 360 + 0.5, 0), Math.nextAfter(1.0, 0));
+    }
+
+    private static double projectLatitude(double latitude){
+        double sin = Math.sin(Math.toRadians(latitude));
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+        return Math.min(Math.max(y, 0), Math.nextAfter(1.0, 0));
+    }
+
+    private static double unprojectLongitude(double x){
+        return (x - 0.5) * 360;
+    }
+
+    private static double unprojectLatitude(double y){
+        return 90 - Math.toDegrees(2 * Math.atan(Math.exp((y - 0.5) * 2 * Math.PI)));
+    }
+
+
+    /** a cluster of a zoom level, or an item (leaf) */
+    public static class Node<T> {
+        private final T mItem;      // null for the clusters
+        private final int mZoom;
+        private final List<Node<T>> mChildren;
+        private Node<T> mParent;
+        private double mX;
+        private double mY;
+        private int mSize;
+
+        private Node(T item, double x, double y, int zoom){
+            mItem = item;
+            mZoom = zoom;
+            mChildren = item == null ? new ArrayList<Node<T>>(1) : Collections.<Node<T>>emptyList();
+            mX = x;
+            mY = y;
+            mSize = item == null ? 0 : 1;
+        }
+
+        public double getLatitude(){
+            return unprojectLatitude(mY);
+        }
+
+        public double getLongitude(){
+            return unprojectLongitude(mX);
+        }
+
+        /** @return the number of items in the cluster */
+        public int getSize(){
+            return mSize;
+        }
+
+        /** @return the items of the cluster, in a new list */
+        public List<T> getItems(){
+            List<T> items = new ArrayList<>(mSize);
+            addItemsTo(items);
+            return items;
+        }
+
+        private void addItemsTo(List<T> items){
+            if(mItem != null){
+                items.add(mItem);
+            }
+            for(Node<T> child : mChildren){
+                child.addItemsTo(items);
+            }
+        }
+    }
+}
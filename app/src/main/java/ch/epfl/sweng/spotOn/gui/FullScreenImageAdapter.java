@@ -3,9 +3,11 @@ package ch.epfl.sweng.spotOn.gui;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.v4.view.PagerAdapter;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -18,8 +20,11 @@ import android.widget.Toast;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 
+import java.util.List;
+
 import ch.epfl.sweng.spotOn.R;
 import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
+import ch.epfl.sweng.spotOn.media.FullSizeImageLoader;
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 import ch.epfl.sweng.spotOn.user.UserManager;
 import ch.epfl.sweng.spotOn.utils.ToastProvider;
@@ -32,7 +37,8 @@ import ch.epfl.sweng.spotOn.utils.ToastProvider;
 public class FullScreenImageAdapter extends PagerAdapter {
     private Activity mActivity;
 
-    private ImageAdapter mRefToImageAdapter;
+    //the pictures in the order of the grid when the adapter was created, the grid can change meanwhile
+    private List<String> mPictureIds;
 
     private int voteSum=0;
     private TextView mTextView;
@@ -42,16 +48,31 @@ public class FullScreenImageAdapter extends PagerAdapter {
     private final static int RESOURCE_IMAGE_FAILURE =  R.mipmap.image_failure;
     private final static int RESOURCE_IMAGE_DELETED =  R.mipmap.image_deleted;
 
+    // pages prefetched in the swipe direction, concurrent prefetches, and part of the heap the prefetched images can use
+    private final static int PREFETCHED_PAGES = 3;
+    private final static int MAX_CONCURRENT_PREFETCHES = 2;
+    private final static int PREFETCH_HEAP_FRACTION = 8;
+
+    private final FullSizeImagePrefetcher mPrefetcher;
+    // the pages fill the screen, the images are decoded at its size
+    private final int mPageWidth;
+    private final int mPageHeight;
+
 
     public FullScreenImageAdapter(Activity activity) {
         mActivity = activity;
-        mRefToImageAdapter = SeePicturesFragment.getImageAdapter();
+        mPictureIds = SeePicturesFragment.getImageAdapter().getOrderedIds();
         mTextView = (TextView) mActivity.findViewById(R.id.UpvoteTextView);
+        DisplayMetrics screen = mActivity.getResources().getDisplayMetrics();
+        mPageWidth = screen.widthPixels;
+        mPageHeight = screen.heightPixels;
+        mPrefetcher = new FullSizeImagePrefetcher(PREFETCHED_PAGES, MAX_CONCURRENT_PREFETCHES,
+                Runtime.getRuntime().maxMemory() / PREFETCH_HEAP_FRACTION, mPageWidth, mPageHeight);
     }
 
     @Override
     public int getCount() {
-        return mRefToImageAdapter.getCount();
+        return mPictureIds.size();
     }
 
     @Override
@@ -66,11 +87,13 @@ public class FullScreenImageAdapter extends PagerAdapter {
         ImageView mViewToSet = (ImageView) viewLayout.findViewById(R.id.fullSizeImageView);
         mViewToSet.setImageResource(RESOURCE_IMAGE_DOWNLOADING);
 
-        if(position >= mRefToImageAdapter.size()){
+        if(position >= mPictureIds.size()){
             throw new ArrayIndexOutOfBoundsException();
         }
 
-        String wantedPicId = mRefToImageAdapter.getIdAtPosition(position);
+        String wantedPicId = mPictureIds.get(position);
+        // the page remembers its picture, the ids may have changed by the time it is destroyed
+        viewLayout.setTag(wantedPicId);
         if(!LocalDatabase.getInstance().hasKey(wantedPicId)){
             Log.d("FullScreenImageAdapter","Image was deleted from database while viewing, displaying error tile");
             mViewToSet.setImageResource(RESOURCE_IMAGE_DELETED);
@@ -84,15 +107,15 @@ public class FullScreenImageAdapter extends PagerAdapter {
                 // want these final variable, because the fields of the class may change if we swipe
                 final ImageView currentView = mViewToSet;
                 final String currentPicId = wantedPicId;
-                mDisplayedMedia.retrieveFullsizeImage(true, new OnCompleteListener<byte[]>() {
+                // shares the download with the prefetcher if the picture is already being prefetched
+                FullSizeImageLoader.getInstance().load(mDisplayedMedia, mPageWidth, mPageHeight).addOnCompleteListener(new OnCompleteListener<Bitmap>() {
                     @Override
-                    public void onComplete(@NonNull Task<byte[]> retrieveFullSizePicTask) {
+                    public void onComplete(@NonNull Task<Bitmap> retrieveFullSizePicTask) {
                         if (retrieveFullSizePicTask.getException() != null) {
                             currentView.setImageResource(RESOURCE_IMAGE_FAILURE);
                             Log.d("FullScreenImageAdapter", "ERROR : couldn't get fullSizeImage for picture " + currentPicId);
                         } else {
-                            Bitmap obtainedImage = BitmapFactory.decodeByteArray(retrieveFullSizePicTask.getResult(), 0, retrieveFullSizePicTask.getResult().length);
-                            currentView.setImageBitmap(obtainedImage);
+                            currentView.setImageBitmap(retrieveFullSizePicTask.getResult());
                         }
                     }
                 });
@@ -108,7 +131,19 @@ public class FullScreenImageAdapter extends PagerAdapter {
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
-        container.removeView((RelativeLayout) object);
+        RelativeLayout viewLayout = (RelativeLayout) object;
+        container.removeView(viewLayout);
+        // the image of the page can be reused to decode the next pages, if it isn't kept in the cache
+        ImageView imageView = (ImageView) viewLayout.findViewById(R.id.fullSizeImageView);
+        Drawable image = imageView.getDrawable();
+        if(image instanceof BitmapDrawable){
+            imageView.setImageDrawable(null);
+            // the image of a picture deleted meanwhile may still be kept by its PhotoObject, it isn't reused
+            PhotoObject photo = LocalDatabase.getInstance().get((String) viewLayout.getTag());
+            if(photo != null){
+                FullSizeImageLoader.getInstance().reuseLater(photo, ((BitmapDrawable) image).getBitmap());
+            }
+        }
     }
 
     /**
@@ -116,7 +151,22 @@ public class FullScreenImageAdapter extends PagerAdapter {
      * in the local database
      */
     public String getPicIdAtPosition(int position){
-        return mRefToImageAdapter.getIdAtPosition(position);
+        return mPictureIds.get(position);
+    }
+
+    /**
+     * Starts downloading the full size images of the pages around the displayed one, see FullSizeImagePrefetcher
+     */
+    public void prefetchAround(int position){
+        mPrefetcher.onPageSelected(mPictureIds, position);
+    }
+
+    /**
+     * Releases the prefetched images, to be called when the pager is closed
+     */
+    public void stopPrefetching(){
+        mPrefetcher.cancel();
+        FullSizeImageLoader.getInstance().clearReusableImages();
     }
 
     public String getPicId(){
@@ -128,7 +178,7 @@ public class FullScreenImageAdapter extends PagerAdapter {
     }
 
     public void refreshVoteTextView(int position){
-        String wantedPicId = mRefToImageAdapter.getIdAtPosition(position);
+        String wantedPicId = mPictureIds.get(position);
         PhotoObject mDisplayedMedia = LocalDatabase.getInstance().get(wantedPicId);
         int votes = mDisplayedMedia.getUpvotes() - mDisplayedMedia.getDownvotes();
         //create a temp String is the ONLY way if you want to correct the lint error
@@ -211,7 +261,7 @@ public class FullScreenImageAdapter extends PagerAdapter {
 
     public void setCurrentMedia(int position) {
         Log.d("Current media position", "" + position);
-        String wantedPicId = mRefToImageAdapter.getIdAtPosition(position);
+        String wantedPicId = mPictureIds.get(position);
         mCurrentPicture = LocalDatabase.getInstance().get(wantedPicId);
     }
 
@@ -221,7 +271,7 @@ public class FullScreenImageAdapter extends PagerAdapter {
      */
     public boolean alreadyUpvoted(String userID){
         if(mCurrentPicture != null) {
-            return mCurrentPicture.getUpvotersList().contains(userID);
+            return mCurrentPicture.hasUpvoted(userID);
         } else {
             throw new NullPointerException("The photoObject is null");
         }
@@ -233,7 +283,7 @@ public class FullScreenImageAdapter extends PagerAdapter {
      */
     public boolean alreadyDownvoted(String userID){
         if(mCurrentPicture != null){
-            return mCurrentPicture.getDownvotersList().contains(userID);
+            return mCurrentPicture.hasDownvoted(userID);
         } else {
             throw new NullPointerException("The photoObject is null");
         }
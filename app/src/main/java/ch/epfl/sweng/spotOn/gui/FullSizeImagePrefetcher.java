@@ -0,0 +1,194 @@
+package ch.epfl.sweng.spotOn.gui;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
+import ch.epfl.sweng.spotOn.media.FullSizeImageLoader;
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+
+/**
+ * Downloads the full size images of the pages around the one displayed by the ViewPager, so that swiping shows them
+ * at once : the next pages in the swipe direction first, then the previous page. At most a few downloads run at
+ * the same time, and the images prefetched are bounded in bytes.
+ * When the user swipes, the queued downloads out of the new window are dropped, and the images prefetched for pages
+ * that left the window are released (downloads already running can't be aborted, their result is released on arrival).
+ * Meant to be used from the main thread only.
+ */
+public class FullSizeImagePrefetcher {
+
+    private final static int PAGES_BEHIND = 1;     // pages prefetched against the swipe direction
+
+    private final int mPagesAhead;
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final int mMaxConcurrentDownloads;
+    private final long mByteBudget;
+
+    private int mCurrentPosition;
+    private int mDirection;
+    private String mCurrentPictureId;
+    private Set<String> mWindow;
+    private final LinkedList<String> mQueue;                     // pictures waiting to be downloaded, by priority
+    private final Map<String, Task<Bitmap>> mRunningDownloads;
+    private final Map<String, Integer> mPrefetchedBytes;        // images held for the window, by picture
+    private long mTotalPrefetchedBytes;
+
+
+    /**
+     * @param pagesAhead the number of pages prefetched in the swipe direction
+     * @param maxConcurrentDownloads the maximum number of downloads at the same time
+     * @param byteBudget the maximum size of the decoded images held for the prefetched pages
+     * @param pageWidth the width of the pages, in pixels, to decode the images at that size
+     * @param pageHeight the height of the pages, in pixels
+     */
+    public FullSizeImagePrefetcher(int pagesAhead, int maxConcurrentDownloads, long byteBudget, int pageWidth, int pageHeight){
+        mPagesAhead = pagesAhead;
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+        mMaxConcurrentDownloads = maxConcurrentDownloads;
+        mByteBudget = byteBudget;
+        mCurrentPosition = -1;
+        mDirection = 1;
+        mWindow = new HashSet<>();
+        mQueue = new LinkedList<>();
+        mRunningDownloads = new HashMap<>();
+        mPrefetchedBytes = new HashMap<>();
+        mTotalPrefetchedBytes = 0;
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * Moves the prefetch window around the displayed page
+     * @param pictureIds the pictures of the pages, in order
+     * @param position the displayed page
+     */
+    public void onPageSelected(List<String> pictureIds, int position){
+        if(mCurrentPosition != -1 && position != mCurrentPosition){
+            mDirection = position > mCurrentPosition ? 1 : -1;
+        }
+        mCurrentPosition = position;
+        mCurrentPictureId = position < pictureIds.size() ? pictureIds.get(position) : null;
+
+        List<String> window = new ArrayList<>();
+        for(int i = 1; i <= mPagesAhead; i++){
+            addIfExists(pictureIds, position + i * mDirection, window);
+        }
+        for(int i = 1; i <= PAGES_BEHIND; i++){
+            addIfExists(pictureIds, position - i * mDirection, window);
+        }
+        mWindow = new HashSet<>(window);
+
+        mQueue.clear();
+        for(String pictureId : window){
+            if(!mRunningDownloads.containsKey(pictureId) && !mPrefetchedBytes.containsKey(pictureId)){
+                mQueue.add(pictureId);
+            }
+        }
+        // the page displayed now keeps its image, it's not a prefetch anymore
+        releaseOutOfWindow();
+        startDownloads();
+    }
+
+    /** drops the queued downloads and releases all the prefetched images, e.g. when the pager is closed */
+    public void cancel(){
+        mQueue.clear();
+        mWindow = new HashSet<>();
+        mCurrentPictureId = null;
+        releaseOutOfWindow();
+    }
+
+
+//PRIVATE HELPERS
+    private static void addIfExists(List<String> pictureIds, int position, List<String> window){
+        if(position >= 0 && position < pictureIds.size()){
+            window.add(pictureIds.get(position));
+        }
+    }
+
+    private void startDownloads(){
+        while(mRunningDownloads.size() < mMaxConcurrentDownloads && !mQueue.isEmpty()){
+            final String pictureId = mQueue.poll();
+            final PhotoObject photo = LocalDatabase.getInstance().get(pictureId);
+            if(photo == null || photo.hasFullSizeImage() || photo.getFullsizeImageLink() == null){
+                continue;
+            }
+            if(mTotalPrefetchedBytes + averagePrefetchedBytes() > mByteBudget){
+                Log.d("FullSizeImagePrefetcher", "byte budget reached, "+mQueue.size()+" prefetches left out");
+                mQueue.clear();
+                return;
+            }
+            // shares the download with the page if it is displayed meanwhile
+            Task<Bitmap> download = FullSizeImageLoader.getInstance().load(photo, mPageWidth, mPageHeight);
+            mRunningDownloads.put(pictureId, download);
+            download.addOnCompleteListener(new OnCompleteListener<Bitmap>() {
+                @Override
+                public void onComplete(@NonNull Task<Bitmap> task) {
+                    onDownloadComplete(pictureId, photo);
+                }
+            });
+        }
+    }
+
+    private void onDownloadComplete(String pictureId, PhotoObject photo){
+        mRunningDownloads.remove(pictureId);
+        if(photo.hasFullSizeImage() && !mPrefetchedBytes.containsKey(pictureId)){
+            if(mWindow.contains(pictureId) || pictureId.equals(mCurrentPictureId)){
+                int size = photo.getFullSizeImage().getByteCount();
+                mPrefetchedBytes.put(pictureId, size);
+                mTotalPrefetchedBytes += size;
+            }else{
+                // the user swiped away while it was downloading
+                release(photo);
+            }
+        }
+        startDownloads();
+    }
+
+    /** releases the prefetched images of the pages that left the window, the displayed page is kept but not counted */
+    private void releaseOutOfWindow(){
+        Iterator<Map.Entry<String, Integer>> prefetched = mPrefetchedBytes.entrySet().iterator();
+        while(prefetched.hasNext()){
+            Map.Entry<String, Integer> entry = prefetched.next();
+            String pictureId = entry.getKey();
+            if(!mWindow.contains(pictureId)){
+                if(!pictureId.equals(mCurrentPictureId)){
+                    PhotoObject photo = LocalDatabase.getInstance().get(pictureId);
+                    if(photo != null){
+                        release(photo);
+                    }
+                }
+                mTotalPrefetchedBytes -= entry.getValue();
+                prefetched.remove();
+            }
+        }
+    }
+
+    /** releases the image of a page that isn't displayed, its memory being reused to decode the next pages */
+    private static void release(PhotoObject photo){
+        if(photo.hasFullSizeImage()){
+            Bitmap image = photo.getFullSizeImage();
+            photo.releaseFullSizeImage();
+            FullSizeImageLoader.getInstance().reuseLater(photo, image);
+        }
+    }
+
+    /** @return the expected size of the next prefetched image, from the ones already prefetched */
+    private long averagePrefetchedBytes(){
+        return mPrefetchedBytes.isEmpty() ? 0 : mTotalPrefetchedBytes / mPrefetchedBytes.size();
+    }
+}
@@ -0,0 +1,149 @@
+package ch.epfl.sweng.spotOn.gui;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.algo.Algorithm;
+import com.google.maps.android.clustering.algo.StaticCluster;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Clustering algorithm of the map, backed by a ClusterTree : the pins are inserted in (or removed from) the clusters of
+ * every zoom level once, and the clusters of a zoom level are then only read. The ClusterManager adds the pins from the
+ * main thread but asks for the clusters from its background task : the pins are only queued when they are added or
+ * removed, and the tree is updated by the next getClusters(), off the main thread. Hence the synchronization.
+ * Once the visible region is set, only the clusters inside it are given to the renderer.
+ */
+public class HierarchicalClusterAlgorithm<T extends ClusterItem> implements Algorithm<T> {
+
+    public final static int MIN_ZOOM = 8;   // minimum zoom preference of the map, see MapFragment
+    public final static int MAX_ZOOM = 21;
+
+    private final ClusterTree<T> mTree;
+    // changes not applied to the tree yet
+    private final Set<T> mPendingInsertions;
+    private final Set<T> mPendingRemovals;
+    // region whose clusters are rendered, null for the whole map
+    private LatLngBounds mVisibleRegion;
+    // clusters already read for each zoom level, valid as long as neither the tree nor the visible region change
+    private final Map<Integer, Set<Cluster<T>>> mClustersCache;
+    private int mCacheVersion;
+
+
+    public HierarchicalClusterAlgorithm(){
+        mTree = new ClusterTree<>(MIN_ZOOM, MAX_ZOOM);
+        mPendingInsertions = new LinkedHashSet<>();
+        mPendingRemovals = new HashSet<>();
+        mVisibleRegion = null;
+        mClustersCache = new HashMap<>();
+        mCacheVersion = mTree.getVersion();
+    }
+
+
+//ALGORITHM METHODS
+    @Override
+    public synchronized void addItem(T item){
+        mPendingRemovals.remove(item);
+        mPendingInsertions.add(item);
+    }
+
+    @Override
+    public synchronized void addItems(Collection<T> items){
+        for(T item : items){
+            addItem(item);
+        }
+    }
+
+    @Override
+    public synchronized void clearItems(){
+        mPendingInsertions.clear();
+        mPendingRemovals.clear();
+        mTree.clear();
+    }
+
+    @Override
+    public synchronized void removeItem(T item){
+        // the item may also be in the tree, if it was added again before being removed
+        mPendingInsertions.remove(item);
+        mPendingRemovals.add(item);
+    }
+
+    /** Called from the background task of the ClusterManager, which first applies the pending changes to the tree */
+    @Override
+    public synchronized Set<? extends Cluster<T>> getClusters(double zoom){
+        applyPendingChanges();
+        int intZoom = (int) Math.floor(zoom);
+        if(mCacheVersion != mTree.getVersion()){
+            mClustersCache.clear();
+            mCacheVersion = mTree.getVersion();
+        }
+        Set<Cluster<T>> clusters = mClustersCache.get(intZoom);
+        if(clusters == null){
+            if(mVisibleRegion == null){
+                clusters = toClusters(mTree.getClusters(intZoom));
+            }else{
+                clusters = toClusters(mTree.getClusters(intZoom, mVisibleRegion.southwest.latitude,
+                        mVisibleRegion.southwest.longitude, mVisibleRegion.northeast.latitude, mVisibleRegion.northeast.longitude));
+            }
+            clusters = Collections.unmodifiableSet(clusters);
+            mClustersCache.put(intZoom, clusters);
+        }
+        return clusters;
+    }
+
+    @Override
+    public synchronized Collection<T> getItems(){
+        applyPendingChanges();
+        return mTree.getItems();
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * Restricts the clusters given to the renderer to those inside the region, the map needs to be clustered again
+     * to show it. Can be called from the main thread
+     * @param region the region of the map, which can cross the antimeridian, or null for the whole map
+     */
+    public synchronized void setVisibleRegion(LatLngBounds region){
+        if(region == null ? mVisibleRegion != null : !region.equals(mVisibleRegion)){
+            mVisibleRegion = region;
+            mClustersCache.clear();
+        }
+    }
+
+
+//PRIVATE HELPERS
+    private void applyPendingChanges(){
+        for(T item : mPendingRemovals){
+            mTree.remove(item);
+        }
+        mPendingRemovals.clear();
+        for(T item : mPendingInsertions){
+            LatLng position = item.getPosition();
+            mTree.insert(item, position.latitude, position.longitude);
+        }
+        mPendingInsertions.clear();
+    }
+
+    /** copies the nodes of the tree, which keeps changing, into the clusters given to the renderer */
+    private static <T extends ClusterItem> Set<Cluster<T>> toClusters(List<ClusterTree.Node<T>> nodes){
+        Set<Cluster<T>> clusters = new HashSet<>(nodes.size());
+        for(ClusterTree.Node<T> node : nodes){
+            StaticCluster<T> cluster = new StaticCluster<>(new LatLng(node.getLatitude(), node.getLongitude()));
+            for(T item : node.getItems()){
+                cluster.add(item);
+            }
+            clusters.add(cluster);
+        }
+        return clusters;
+    }
+}
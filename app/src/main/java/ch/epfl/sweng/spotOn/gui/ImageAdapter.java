@@ -8,123 +8,125 @@ import android.widget.BaseAdapter;
 import android.widget.GridView;
 import android.widget.ImageView;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
+import ch.epfl.sweng.spotOn.localObjects.SortedPhotoIndex;
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 
 /**
- * This class is the core of the gridView, used to link the data to one of the grid object
+ * This class is the core of the gridView, used to link the data to one of the grid object.
+ * The viewable pictures are kept in one SortedPhotoIndex per ordering, built the first time the ordering is shown and
+ * then updated with each picture added, removed or voted on, so that the grid never sorts all the pictures again.
+ * The ids of the items are stable and the thumbnails are bound asynchronously by a ThumbnailBinder : after an update,
+ * the cells still showing the same picture are left untouched, and scrolling never decodes on the main thread.
  */
 public class ImageAdapter extends BaseAdapter {
     private Context mContext;
 
     private Map<String,PhotoObject> mMediaMap;
-    private List<String> mThumbId;
-    private List<Bitmap> mThumbnail;
+    private final Map<Integer, SortedPhotoIndex> mIndexes;
+    private int mOrdering;
+    private SortedPhotoIndex mCurrentIndex;
+    // item ids of the pictures shown, which never change as long as the picture stays in the grid
+    private final Map<String, Long> mStableIds;
+    private long mNextStableId;
+    private final ThumbnailBinder mThumbnailBinder;
 
 
     public ImageAdapter(Context c, int ordering) {
+        mContext = c;
         mMediaMap = LocalDatabase.getInstance().getViewableMedias();
-        mThumbId = new ArrayList<>(mMediaMap.keySet());
-        //order the list in function of ordering
-
-        //Most positive voting appear first
-        Comparator<String> mostUpVoteComparator = new Comparator<String>(){
-            @Override
-            public int compare(String objectId1, String objectId2)
-            {
-                int vote1 = mMediaMap.get(objectId1).getUpvotes()-mMediaMap.get(objectId1).getDownvotes();
-                int vote2 = mMediaMap.get(objectId2).getUpvotes()-mMediaMap.get(objectId2).getDownvotes();
-                return ((Integer)vote2).compareTo(vote1);
-            }
-        };
-
-        //The most voted picture appear first
-        Comparator<String> hottestComparator = new Comparator<String>(){
-            @Override
-            public int compare(String objectId1, String objectId2)
-            {
-                int vote1 = mMediaMap.get(objectId1).getUpvotes()+mMediaMap.get(objectId1).getDownvotes();
-                int vote2 = mMediaMap.get(objectId2).getUpvotes()+mMediaMap.get(objectId2).getDownvotes();
-                return ((Integer)vote2).compareTo(vote1);
-            }
-        };
-
-        //oldest picture first
-        Comparator<String> oldestComparator = new Comparator<String>(){
-            @Override
-            public int compare(String objectId1, String objectId2)
-            {
-                return mMediaMap.get(objectId1).getCreatedDate().compareTo(mMediaMap.get(objectId2).getCreatedDate());
-            }
-        };
-
-        //newest picture first
-        Comparator<String> newestComparator = new Comparator<String>(){
-            @Override
-            public int compare(String objectId1, String objectId2)
-            {
-                return mMediaMap.get(objectId2).getCreatedDate().compareTo(mMediaMap.get(objectId1).getCreatedDate());
-            }
-        };
-
-        //default comparator, ordering the string ID (which is equivalent to oldestComparator since we use firebase)
-        Comparator<String> defaultComparator = new Comparator<String>(){
-            @Override
-            public int compare(String objectId1, String objectId2)
-            {
-                return objectId1.compareTo(objectId2);
+        mIndexes = new HashMap<>();
+        mStableIds = new HashMap<>();
+        mNextStableId = 0;
+        mThumbnailBinder = new ThumbnailBinder();
+        setOrdering(ordering);
+    }
+
+    /**
+     * Shows the pictures in the given order, the order being computed if it is shown for the first time
+     * @param ordering one of the orders of SeePicturesFragment
+     */
+    public void setOrdering(int ordering){
+        mOrdering = ordering;
+        SortedPhotoIndex index = mIndexes.get(ordering);
+        if(index == null){
+            index = new SortedPhotoIndex();
+            for(PhotoObject photo : mMediaMap.values()){
+                index.put(photo.getPictureId(), sortKey(photo, ordering));
             }
-        };
+            mIndexes.put(ordering, index);
+        }
+        if(index != mCurrentIndex){
+            mCurrentIndex = index;
+            notifyDataSetChanged();
+        }
+    }
 
-        Comparator<String> currentComparator;
+    public int getOrdering(){
+        return mOrdering;
+    }
 
-        switch(ordering){
-            case SeePicturesFragment.UPVOTE_ORDER:
-                currentComparator = mostUpVoteComparator;
-                break;
-            case SeePicturesFragment.HOTTEST_ORDER:
-                currentComparator = hottestComparator;
-                break;
-            case SeePicturesFragment.NEWEST_ORDER:
-                currentComparator = newestComparator;
-                break;
-            case SeePicturesFragment.OLDEST_ORDER:
-                currentComparator = oldestComparator;
-                break;
-            case SeePicturesFragment.DEFAULT_ORDER:
-            default:
-                currentComparator = defaultComparator;
-                break;
-        }
-        Collections.sort(mThumbId,currentComparator);
+    /**
+     * Updates the orders after the viewable pictures may have changed (e.g. the user moved), only the pictures that
+     * appeared, disappeared or whose votes changed are moved
+     */
+    public void refresh(){
+        Map<String, PhotoObject> newMediaMap = LocalDatabase.getInstance().getViewableMedias();
+        // the pictures of the grid, rather than of the previous map, so that none is left behind if they differ
+        Set<String> candidates = mCurrentIndex.differenceWith(newMediaMap.keySet());
+        candidates.addAll(newMediaMap.keySet());
+        Map<String, PhotoObject> previousMediaMap = mMediaMap;
+        mMediaMap = newMediaMap;
+        updateIndexes(candidates, previousMediaMap);
+    }
 
-        mThumbnail = new ArrayList<>();
-        mContext = c;
-        for(String s: mThumbId){
-            mThumbnail.add(mMediaMap.get(s).getThumbnail());
+    /**
+     * Updates the orders after an incremental update of the local database, see LocalDatabaseChangeListener
+     */
+    public void refresh(Set<String> addedIds, Set<String> changedIds, Set<String> removedIds){
+        Map<String, PhotoObject> previousMediaMap = mMediaMap;
+        mMediaMap = LocalDatabase.getInstance().getViewableMedias();
+        Set<String> candidates = new HashSet<>(addedIds);
+        candidates.addAll(changedIds);
+        candidates.addAll(removedIds);
+        if(mMediaMap != previousMediaMap){
+            // the viewable pictures were computed again, e.g. the user moved : some appeared or disappeared without
+            // being added to or removed from the database
+            candidates.addAll(mCurrentIndex.differenceWith(mMediaMap.keySet()));
         }
-
+        updateIndexes(candidates, previousMediaMap);
     }
 
     @Override
     public int getCount() {
-        return mThumbnail.size();
+        return mCurrentIndex.size();
     }
 
     @Override
     public Object getItem(int position) {
-        return mThumbnail.get(position);
+        return thumbnailAt(position);
     }
 
     @Override
     public long getItemId(int position) {
-        return 0;
+        String pictureId = mCurrentIndex.idAt(position);
+        Long id = mStableIds.get(pictureId);
+        if(id == null){
+            id = mNextStableId++;
+            mStableIds.put(pictureId, id);
+        }
+        return id;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     // create a new ImageView for each item referenced by the Adapter
@@ -140,24 +142,95 @@ public class ImageAdapter extends BaseAdapter {
             sImageView = (SquareImageView) convertView;
         }
 
-        sImageView.setImageBitmap(mThumbnail.get(position));
+        PhotoObject photo = mMediaMap.get(mCurrentIndex.idAt(position));
+        if(photo == null){
+            mThumbnailBinder.cancel(sImageView);
+            sImageView.setImageDrawable(null);
+        }else{
+            //does nothing if the recycled view already shows this picture, cancels the loading of its previous one otherwise
+            mThumbnailBinder.bind(sImageView, photo);
+        }
         return sImageView;
     }
 
     public boolean containsThumbID(String thumbID){
-        return mThumbId.contains(thumbID);
+        return mCurrentIndex.contains(thumbID);
     }
 
     public int getPositionThumbID(String thumbID){
-        return mThumbId.indexOf(thumbID);
+        return mCurrentIndex.positionOf(thumbID);
     }
 
     public String getIdAtPosition(int pos){
-        return mThumbId.get(pos);
+        return mCurrentIndex.idAt(pos);
+    }
+
+    /** @return a copy of the ids of the pictures, in the order of the grid */
+    public List<String> getOrderedIds(){
+        return mCurrentIndex.getIds();
     }
 
     public int size(){
-        return mThumbId.size();
+        return mCurrentIndex.size();
+    }
+
+
+//PRIVATE HELPERS
+    /**
+     * moves, adds or removes the candidates in every order. The grid is notified once if the shown order changed
+     * or if a picture was replaced by a new version, and then only rebinds the cells whose picture changed
+     */
+    private void updateIndexes(Set<String> candidates, Map<String, PhotoObject> previousMediaMap){
+        boolean gridChanged = false;
+        for(String pictureId : candidates){
+            PhotoObject previousPhoto = previousMediaMap.get(pictureId);
+            gridChanged |= previousPhoto != null && previousPhoto != mMediaMap.get(pictureId);
+            // a picture which comes back later gets a new id, which is never the one of another picture
+            if(!mMediaMap.containsKey(pictureId)){
+                mStableIds.remove(pictureId);
+            }
+        }
+        for(Map.Entry<Integer, SortedPhotoIndex> index : mIndexes.entrySet()){
+            boolean orderChanged = false;
+            for(String pictureId : candidates){
+                PhotoObject photo = mMediaMap.get(pictureId);
+                if(photo == null){
+                    orderChanged |= index.getValue().remove(pictureId);
+                }else{
+                    orderChanged |= index.getValue().put(pictureId, sortKey(photo, index.getKey()));
+                }
+            }
+            gridChanged |= orderChanged && index.getValue() == mCurrentIndex;
+        }
+        if(gridChanged){
+            notifyDataSetChanged();
+        }
+    }
+
+    private Bitmap thumbnailAt(int position){
+        PhotoObject photo = mMediaMap.get(mCurrentIndex.idAt(position));
+        return photo == null ? null : photo.getThumbnail();
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the key of the picture in the given order, smallest first
+     */
+    private static long sortKey(PhotoObject photo, int ordering){
+        switch(ordering){
+            case SeePicturesFragment.UPVOTE_ORDER:
+                //Most positive voting appear first
+                return -((long) photo.getUpvotes() - photo.getDownvotes());
+            case SeePicturesFragment.HOTTEST_ORDER:
+                //The most voted picture appear first
+                return -((long) photo.getUpvotes() + photo.getDownvotes());
+            case SeePicturesFragment.NEWEST_ORDER:
+                return -photo.getCreatedDate().getTime();
+            case SeePicturesFragment.OLDEST_ORDER:
+                return photo.getCreatedDate().getTime();
+            case SeePicturesFragment.DEFAULT_ORDER:
+            default:
+                //same key for all the pictures, ordering the string ID (which is equivalent to the oldest order since we use firebase)
+                return 0;
+        }
+    }
+}
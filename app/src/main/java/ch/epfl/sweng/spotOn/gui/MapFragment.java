@@ -1,23 +1,13 @@
 package ch.epfl.sweng.spotOn.gui;
 
 
-import android.annotation.TargetApi;
-import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
-import android.graphics.drawable.VectorDrawable;
-import android.os.Build;
 import android.location.Location;
 
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import android.view.InflateException;
 import android.view.LayoutInflater;
@@ -30,8 +20,8 @@ import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.maps.android.MarkerManager;
@@ -41,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import ch.epfl.sweng.spotOn.R;
 import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
@@ -54,6 +45,14 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
 
     //Geneva Lake
     private static final LatLng DEFAULT_LOCATION = new LatLng(46.5,6.6);
+    // the pins are placed in the visible region extended by this fraction of its size on each side
+    private static final double PREFETCH_MARGIN = 0.5;
+    // the pins are placed again when the visible region becomes this many times smaller than the pinned region
+    private static final double MAX_ZOOM_IN_FACTOR = 4;
+    // the clusters are rendered again in a smaller region as soon as the visible region becomes twice smaller
+    private static final double MAX_RENDERED_ZOOM_IN_FACTOR = 2;
+    // from this zoom on, the single pins show the thumbnail of their picture
+    private static final float THUMBNAIL_MARKERS_ZOOM = 17f;
 
     //marker representing our location on the map
     private Marker mLocationMarker;
@@ -61,9 +60,14 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
     //list of photoObject
     private List<PhotoObject> mListPhoto;
 
-    private List<String> mThumbIDs;
     private ClusterManager<Pin> mClusterManager;
+    private HierarchicalClusterAlgorithm<Pin> mClusterAlgorithm;
+    private MarkerReconciler mMarkerReconciler;
     private GoogleMap mMap;
+    // region in which the pins are placed, null when all the photos are pinned
+    private LatLngBounds mPinnedBounds;
+    // region whose clusters are rendered, inside the pinned region after a zoom in, null when all the clusters are rendered
+    private LatLngBounds mRenderedBounds;
 
     private View mView;
 
@@ -115,8 +119,8 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
                             .position(newLocation)
                             .anchor(0.5f,0.5f)
                             .zIndex(10f)
-                            .icon(BitmapDescriptorFactory.fromBitmap(getBitmap(getContext(),
-                                    R.drawable.ic_position_marker_30dp))));
+                            .icon(MarkerIconCache.getInstance().getResourceIcon(getContext(),
+                                    R.drawable.ic_position_marker_30dp)));
                     mMap.moveCamera(CameraUpdateFactory.newLatLng(newLocation));
                 }else{
                     tempHandler.post(new Runnable() {
@@ -198,9 +202,31 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
             }
         });
 
-        //The cluster manager takes care when the user clicks on a marker and regroups the markers together
-        mMap.setOnCameraIdleListener(mClusterManager);
-        mClusterManager.setRenderer(new ClusterRenderer(getContext(), mMap, mClusterManager));
+        //The cluster manager takes care when the user clicks on a marker and regroups the markers together,
+        //and the pins follow the camera
+        mMap.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
+            @Override
+            public void onCameraIdle() {
+                ((ClusterRenderer) mClusterManager.getRenderer()).onCameraChanged(mMap.getCameraPosition().zoom,
+                        mMap.getMaxZoomLevel());
+                if(pinnedBoundsAreOutdated()){
+                    addDBMarkers();
+                }
+                if(boundsAreOutdated(mRenderedBounds, MAX_RENDERED_ZOOM_IN_FACTOR)){
+                    mRenderedBounds = extendedVisibleBounds();
+                    mClusterAlgorithm.setVisibleRegion(mRenderedBounds);
+                    mClusterManager.cluster();
+                }
+                mClusterManager.onCameraIdle();
+            }
+        });
+        //the clusters of each zoom level are computed when the pins change, not at each zoom
+        mClusterAlgorithm = new HierarchicalClusterAlgorithm<>();
+        mRenderedBounds = null;
+        mClusterManager.setAlgorithm(mClusterAlgorithm);
+        ClusterRenderPolicy renderPolicy = new ClusterRenderPolicy(ClusterRenderPolicy.DEFAULT.getMinClusterSize(),
+                ClusterRenderPolicy.DEFAULT.getUnclusteredZoomLevels(), THUMBNAIL_MARKERS_ZOOM);
+        mClusterManager.setRenderer(new ClusterRenderer(getContext(), mMap, mClusterManager, renderPolicy));
 
         mMap.setOnMarkerClickListener(mClusterManager);
         mMap.setOnInfoWindowClickListener(mClusterManager);
@@ -209,6 +235,7 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
         mClusterManager.setOnClusterItemClickListener(this);
         mClusterManager.setOnClusterItemInfoWindowClickListener(this);
 
+        mMarkerReconciler = new MarkerReconciler(mClusterManager);
         addDBMarkers();
     }
 
@@ -219,23 +246,12 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
     {
         if(ConcreteLocationTracker.instanceExists() && ConcreteLocationTracker.getInstance().hasValidLocation()){
             LatLng currLoc = ConcreteLocationTracker.getInstance().getLatLng();
-            mListPhoto = new ArrayList<>(LocalDatabase.getInstance().getAllNearbyMediasMap().values());
-            mThumbIDs = new ArrayList<>(LocalDatabase.getViewableThumbnails().keySet());
+            mListPhoto = photosToPin();
             // old if(mMap!=null && currLoc!=null) {
-            if(mMap!=null) {
-                //empty the cluster manager and the map of markers to pins
-                mClusterManager.clearItems();
-                //mMarkersToPin = new HashMap<>();
-
-                //add the new pins on the Cluster Manager
-                for (PhotoObject photo : mListPhoto) {
-                    boolean canActivateIt = photo.isInPictureCircle(currLoc);
-                    Pin pinForPicture = new Pin(photo, canActivateIt);
-                    //add the pin to the cluster manager
-                    mClusterManager.addItem(pinForPicture);
-                    //Re-cluster the cluster at each addition of a pin
-                    mClusterManager.cluster();
-                }
+            if(mMap!=null && mMarkerReconciler!=null) {
+                //only the pins that changed are replaced, and the pins are clustered once
+                int nbChangedPins = mMarkerReconciler.reconcile(mListPhoto, accessibleIds(currLoc));
+                Log.d("MapFragment", nbChangedPins+" pins changed out of "+mListPhoto.size());
             }else{
                 Log.d("MapFragment","No valid instance of LocationTracker, or no valid Location");
             }
@@ -243,6 +259,95 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
 
     }
 
+    /**
+     * Only the photos around the visible region of the map get a pin, so that the number of markers depends on the
+     * viewport and not on the number of photos. The region is extended by a margin so small camera moves don't need new pins
+     * @return the photos to pin, all the photos of the local database if the map isn't ready
+     */
+    private List<PhotoObject> photosToPin(){
+        if(mMap == null){
+            mPinnedBounds = null;
+            return new ArrayList<>(LocalDatabase.getInstance().getAllNearbyMediasMap().values());
+        }
+        mPinnedBounds = extendedVisibleBounds();
+        return LocalDatabase.getInstance().getMediasInBounds(mPinnedBounds.southwest.latitude,
+                mPinnedBounds.southwest.longitude, mPinnedBounds.northeast.latitude, mPinnedBounds.northeast.longitude);
+    }
+
+    /** @return the visible region of the map, extended by PREFETCH_MARGIN on each side */
+    private LatLngBounds extendedVisibleBounds(){
+        LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        double latitudeMargin = latitudeSpan(visible) * PREFETCH_MARGIN;
+        double longitudeMargin = longitudeSpan(visible) * PREFETCH_MARGIN;
+        double south = Math.max(-90, visible.southwest.latitude - latitudeMargin);
+        double north = Math.min(90, visible.northeast.latitude + latitudeMargin);
+        double west = visible.southwest.longitude - longitudeMargin;
+        double east = visible.northeast.longitude + longitudeMargin;
+        if(longitudeSpan(visible) + 2 * longitudeMargin >= 360){
+            west = -180;
+            east = 180;
+        }else{
+            west = west < -180 ? west + 360 : west;
+            east = east > 180 ? east - 360 : east;
+        }
+        return new LatLngBounds(new LatLng(south, west), new LatLng(north, east));
+    }
+
+    /** @return true if the visible region got out of the pinned region, or is much smaller than it after a zoom in */
+    private boolean pinnedBoundsAreOutdated(){
+        return boundsAreOutdated(mPinnedBounds, MAX_ZOOM_IN_FACTOR);
+    }
+
+    /** @return true if the visible region got out of the bounds, or is more than maxZoomInFactor times smaller */
+    private boolean boundsAreOutdated(LatLngBounds bounds, double maxZoomInFactor){
+        if(mMap == null || bounds == null){
+            return true;
+        }
+        LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        return !bounds.contains(visible.southwest) || !bounds.contains(visible.northeast)
+                || latitudeSpan(bounds) > maxZoomInFactor * latitudeSpan(visible);
+    }
+
+    private static double latitudeSpan(LatLngBounds bounds){
+        return bounds.northeast.latitude - bounds.southwest.latitude;
+    }
+
+    /** the bounds can cross the antimeridian */
+    private static double longitudeSpan(LatLngBounds bounds){
+        double span = bounds.northeast.longitude - bounds.southwest.longitude;
+        return span < 0 ? span + 360 : span;
+    }
+
+    /**
+     * Restyles the pins of the photos whose circle the user entered or left, without rebuilding the clusters
+     */
+    private void refreshPinsAccessibility(){
+        if(mMarkerReconciler!=null && ConcreteLocationTracker.getInstance().hasValidLocation()){
+            LatLng currLoc = ConcreteLocationTracker.getInstance().getLatLng();
+            int nbRestyledPins = mMarkerReconciler.updateAccessibility(accessibleIds(currLoc));
+            if(nbRestyledPins > 0){
+                Log.d("MapFragment", nbRestyledPins+" pins changed accessibility");
+            }
+        }
+    }
+
+    /** @return the ids of the photos that can be seen from the location */
+    private static Set<String> accessibleIds(LatLng location){
+        return LocalDatabase.getInstance().getIdsOfMediasViewableFrom(location.latitude, location.longitude);
+    }
+
+    /** removes all the pins at once, e.g. when the user logs out and the local database is emptied */
+    public void clearPins(){
+        if(mMarkerReconciler!=null){
+            mMarkerReconciler.clear();
+        }
+    }
+
+    /** Number of pins on the map (grouped in clusters or not) - for tests */
+    public int getNbPlacedPins(){
+        return mMarkerReconciler == null ? 0 : mMarkerReconciler.getNbPlacedPins();
+    }
+
     /**
      * Method that associates and display the thumbnail of the photo associated to a marker when clicked
      * @param pin the pin/marker the user is clicking on
@@ -263,6 +368,7 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
     @Override
     public void updateLocation(Location newLocation) {
             refreshMapLocation();
+            refreshPinsAccessibility();
     }
 
     @Override
@@ -313,37 +419,4 @@ public class MapFragment extends Fragment implements LocationTrackerListener, Lo
         }
         return true;
     }
-
-    /**
-     * Get a bitmap from a VectorDrawable (xml file) -> this method will be called if the API is
-     * Lollipop or below
-     * @param vectorDrawable the VectorDrawable to get its bitmap
-     * @return the bitmap of the VectorDrawable
-     */
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private static Bitmap getBitmap(VectorDrawable vectorDrawable) {
-        Bitmap bitmap = Bitmap.createBitmap(vectorDrawable.getIntrinsicWidth(),
-                vectorDrawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        vectorDrawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-        vectorDrawable.draw(canvas);
-        return bitmap;
-    }
-
-    /**
-     * Get the bitmap from an xml file to be the icon of the position marker
-     * @param context the context of the fragment
-     * @param drawableId the ID of the xml file
-     * @return the bitmap of the resource xml file
-     */
-    private static Bitmap getBitmap(Context context, int drawableId) {
-        Drawable drawable = ContextCompat.getDrawable(context, drawableId);
-        if (drawable instanceof BitmapDrawable) {
-            return BitmapFactory.decodeResource(context.getResources(), drawableId);
-        } else if (drawable instanceof VectorDrawable) {
-            return getBitmap((VectorDrawable) drawable);
-        } else {
-            throw new IllegalArgumentException("unsupported drawable type");
-        }
-    }
-}
+}
\ No newline at end of file
@@ -0,0 +1,266 @@
+package ch.epfl.sweng.spotOn.gui;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.VectorDrawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+
+/**
+ * Icons of the markers of the map, created once per style instead of once per rendered marker :
+ * the colored pins by hue, the icons drawn from resources (e.g. the position marker) by drawable id,
+ * and the circular thumbnails shown at high zoom by picture, in a cache bounded in size and emptied when memory is low.
+ * The thumbnails not decoded yet are decoded in the background, the pin shows its colored icon in the meantime.
+ * Only used from the main thread, like the markers.
+ */
+public class MarkerIconCache implements ComponentCallbacks2 {
+
+    private final static int FRACTION_OF_HEAP = 64;    // the thumbnail icons can use 1/64 of the maximum heap
+    private final static float BORDER_FRACTION = 0.1f;  // width of the colored border of a thumbnail icon, relative to its diameter
+
+    private static MarkerIconCache mSingleInstance = null;
+
+    private final Map<Float, BitmapDescriptor> mPinIcons;
+    private final Map<Integer, BitmapDescriptor> mResourceIcons;
+    private final LruCache<String, ThumbnailIcon> mThumbnailIcons;
+    private final Set<String> mPendingThumbnailIcons;   // keys of the icons whose thumbnail is being decoded
+    private final Handler mMainHandler;
+    private boolean mRegisteredForMemoryCallbacks;
+
+
+    public static synchronized MarkerIconCache getInstance(){
+        if(mSingleInstance == null){
+            mSingleInstance = new MarkerIconCache((int) (Runtime.getRuntime().maxMemory() / FRACTION_OF_HEAP));
+        }
+        return mSingleInstance;
+    }
+
+    /** lets the system tell the cache when memory is low, only registers once even if called several times */
+    public static synchronized void registerMemoryCallbacks(Context c){
+        MarkerIconCache cache = getInstance();
+        if(!cache.mRegisteredForMemoryCallbacks){
+            c.getApplicationContext().registerComponentCallbacks(cache);
+            cache.mRegisteredForMemoryCallbacks = true;
+        }else{
+            Log.d("MarkerIconCache","tried to register for memory callbacks, but already registered");
+        }
+    }
+
+    private MarkerIconCache(int maxThumbnailIconsSizeInBytes){
+        mPinIcons = new HashMap<>();
+        mResourceIcons = new HashMap<>();
+        mPendingThumbnailIcons = new HashSet<>();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mRegisteredForMemoryCallbacks = false;
+        mThumbnailIcons = new LruCache<String, ThumbnailIcon>(maxThumbnailIconsSizeInBytes) {
+            @Override
+            protected int sizeOf(String key, ThumbnailIcon icon) {
+                return icon.sizeInBytes;
+            }
+        };
+    }
+
+
+//PUBLIC METHODS
+    /** @return the default marker of the given hue, see BitmapDescriptorFactory */
+    public BitmapDescriptor getPinIcon(float hue){
+        BitmapDescriptor icon = mPinIcons.get(hue);
+        if(icon == null){
+            icon = BitmapDescriptorFactory.defaultMarker(hue);
+            mPinIcons.put(hue, icon);
+        }
+        return icon;
+    }
+
+    /** @return the icon drawn from the resource, which can be a bitmap or a vector drawable */
+    public BitmapDescriptor getResourceIcon(Context context, int drawableId){
+        BitmapDescriptor icon = mResourceIcons.get(drawableId);
+        if(icon == null){
+            icon = BitmapDescriptorFactory.fromBitmap(getBitmap(context, drawableId));
+            mResourceIcons.put(drawableId, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * @param pin the pin whose thumbnail is shown, with a border of the color of the pin
+     * @param diameterInPixels the size of the icon
+     * @param listener told on the main thread when the icon is ready, if the thumbnail had to be decoded first
+     * @return the circular thumbnail icon of the pin, or the colored pin icon while its thumbnail isn't decoded
+     */
+    public BitmapDescriptor getThumbnailIcon(Pin pin, int diameterInPixels, OnThumbnailIconReadyListener listener){
+        String key = pin.getPhotoObject().getPictureId() + "/" + pin.getColor() + "/" + diameterInPixels;
+        ThumbnailIcon icon = mThumbnailIcons.get(key);
+        Bitmap thumbnail = pin.getPhotoObject().getThumbnailIfDecoded();
+        if(thumbnail == null){
+            if(icon != null){
+                return icon.descriptor;
+            }
+            decodeThumbnailIcon(key, pin, diameterInPixels, listener);
+            return getPinIcon(pin.getColor());
+        }
+        // the thumbnail is shared and immutable, a new instance means the picture changed
+        if(icon == null || icon.thumbnail != thumbnail){
+            icon = new ThumbnailIcon(thumbnail, BitmapDescriptorFactory.fromBitmap(
+                    drawCircularIcon(thumbnail, pin.getColor(), diameterInPixels)), diameterInPixels);
+            mThumbnailIcons.put(key, icon);
+        }
+        return icon.descriptor;
+    }
+
+    public void clearThumbnailIcons(){
+        mThumbnailIcons.evictAll();
+    }
+
+
+//MEMORY CALLBACKS
+    @Override
+    public void onTrimMemory(int level) {
+        if(level >= TRIM_MEMORY_UI_HIDDEN){
+            // the map isn't shown anymore, the icons are drawn again when it comes back
+            clearThumbnailIcons();
+        }else if(level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL){
+            mThumbnailIcons.trimToSize(mThumbnailIcons.size() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clearThumbnailIcons();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+
+    /** Told when the thumbnail icon of a pin is ready, so that its marker can show it instead of the colored pin */
+    public interface OnThumbnailIconReadyListener {
+        void onThumbnailIconReady(Pin pin);
+    }
+
+
+//PRIVATE HELPERS
+    /** decodes the thumbnail and draws the icon in the background, only once at a time for each icon */
+    private void decodeThumbnailIcon(final String key, final Pin pin, final int diameterInPixels,
+                                     final OnThumbnailIconReadyListener listener){
+        if(!mPendingThumbnailIcons.add(key)){
+            return;
+        }
+        final PhotoObject photo = pin.getPhotoObject();
+        ThumbnailBinder.getDecodeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap thumbnail = photo.getThumbnail();
+                final Bitmap iconBitmap = thumbnail == null ? null : drawCircularIcon(thumbnail, pin.getColor(), diameterInPixels);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPendingThumbnailIcons.remove(key);
+                        if(iconBitmap != null){
+                            mThumbnailIcons.put(key, new ThumbnailIcon(thumbnail,
+                                    BitmapDescriptorFactory.fromBitmap(iconBitmap), diameterInPixels));
+                            listener.onThumbnailIconReady(pin);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static Bitmap drawCircularIcon(Bitmap thumbnail, float hue, int diameter){
+        int borderColor = Color.HSVToColor(new float[]{hue, 1f, 1f});
+        Bitmap icon = Bitmap.createBitmap(diameter, diameter, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(icon);
+        float radius = diameter / 2f;
+
+        Paint borderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        borderPaint.setColor(borderColor);
+        canvas.drawCircle(radius, radius, radius, borderPaint);
+
+        // the thumbnail is square, it is scaled to fill the circle inside the border
+        float innerRadius = radius * (1 - 2 * BORDER_FRACTION);
+        BitmapShader shader = new BitmapShader(thumbnail, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        Matrix matrix = new Matrix();
+        float scale = 2 * innerRadius / Math.min(thumbnail.getWidth(), thumbnail.getHeight());
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(radius - thumbnail.getWidth() * scale / 2, radius - thumbnail.getHeight() * scale / 2);
+        shader.setLocalMatrix(matrix);
+        Paint thumbnailPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        thumbnailPaint.setShader(shader);
+        canvas.drawCircle(radius, radius, innerRadius, thumbnailPaint);
+        return icon;
+    }
+
+    /**
+     * Get a bitmap from a VectorDrawable (xml file) -> this method will be called if the API is
+     * Lollipop or below
+     * @param vectorDrawable the VectorDrawable to get its bitmap
+     * @return the bitmap of the VectorDrawable
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static Bitmap getBitmap(VectorDrawable vectorDrawable) {
+        Bitmap bitmap = Bitmap.createBitmap(vectorDrawable.getIntrinsicWidth(),
+                vectorDrawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        vectorDrawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        vectorDrawable.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * Get the bitmap from an xml file to be the icon of a marker
+     * @param context the context of the fragment
+     * @param drawableId the ID of the xml file
+     * @return the bitmap of the resource xml file
+     */
+    private static Bitmap getBitmap(Context context, int drawableId) {
+        Drawable drawable = ContextCompat.getDrawable(context, drawableId);
+        if (drawable instanceof BitmapDrawable) {
+            return BitmapFactory.decodeResource(context.getResources(), drawableId);
+        } else if (drawable instanceof VectorDrawable) {
+            return getBitmap((VectorDrawable) drawable);
+        } else {
+            throw new IllegalArgumentException("unsupported drawable type");
+        }
+    }
+
+
+    private static class ThumbnailIcon {
+        final Bitmap thumbnail;
+        final BitmapDescriptor descriptor;
+        final int sizeInBytes;
+
+        ThumbnailIcon(Bitmap thumbnail, BitmapDescriptor descriptor, int diameterInPixels){
+            this.thumbnail = thumbnail;
+            this.descriptor = descriptor;
+            this.sizeInBytes = diameterInPixels * diameterInPixels * 4;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ch.epfl.sweng.spotOn.gui;
+
+import com.google.maps.android.clustering.ClusterManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+
+/**
+ * Keeps the pins of a ClusterManager in sync with a set of photos : only the pins of the photos that appeared,
+ * disappeared or whose accessibility changed are added or removed, and the clusters are computed once per update
+ * instead of once per pin. When the user moves, only the pins of the photos whose circle was entered or left are restyled,
+ * without clustering again. Meant to be used from the main thread only.
+ */
+public class MarkerReconciler {
+
+    private final ClusterManager<Pin> mClusterManager;
+    private final Map<String, Pin> mPlacedPins;    // pins currently in the cluster manager, by pictureId
+    private final Set<String> mAccessiblePins;      // ids of the placed pins that are accessible
+
+
+    public MarkerReconciler(ClusterManager<Pin> clusterManager){
+        mClusterManager = clusterManager;
+        mPlacedPins = new HashMap<>();
+        mAccessiblePins = new HashSet<>();
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * Updates the pins so that there is exactly one for each photo, green if the user is in the circle of the photo
+     * @param photos the photos that should have a pin
+     * @param accessibleIds the ids of the photos whose circle contains the user
+     * @return the number of pins that were added, removed or replaced
+     */
+    public int reconcile(Collection<PhotoObject> photos, Set<String> accessibleIds){
+        int nbChanges = 0;
+        Set<String> wantedIds = new HashSet<>(photos.size());
+        for(PhotoObject photo : photos){
+            String pictureId = photo.getPictureId();
+            wantedIds.add(pictureId);
+            boolean isAccessible = accessibleIds.contains(pictureId);
+            Pin placedPin = mPlacedPins.get(pictureId);
+            if(placedPin != null && placedPin.getPhotoObject() == photo){
+                if(placedPin.getAccessibility() != isAccessible){
+                    restyle(placedPin, isAccessible);
+                }
+                continue;
+            }
+            if(placedPin != null){
+                mClusterManager.removeItem(placedPin);
+            }
+            Pin newPin = new Pin(photo, isAccessible);
+            mClusterManager.addItem(newPin);
+            mPlacedPins.put(pictureId, newPin);
+            setAccessible(pictureId, isAccessible);
+            nbChanges++;
+        }
+        Iterator<Map.Entry<String, Pin>> placedPins = mPlacedPins.entrySet().iterator();
+        while(placedPins.hasNext()){
+            Map.Entry<String, Pin> placedPin = placedPins.next();
+            if(!wantedIds.contains(placedPin.getKey())){
+                mClusterManager.removeItem(placedPin.getValue());
+                mAccessiblePins.remove(placedPin.getKey());
+                placedPins.remove();
+                nbChanges++;
+            }
+        }
+        if(nbChanges > 0){
+            mClusterManager.cluster();
+        }
+        return nbChanges;
+    }
+
+    /**
+     * Restyles the pins whose accessibility changed after the user moved, the set of pins and the clusters are kept
+     * @param accessibleIds the ids of the photos whose circle contains the new location of the user
+     * @return the number of pins restyled
+     */
+    public int updateAccessibility(Set<String> accessibleIds){
+        List<String> changedPins = new ArrayList<>();
+        // the circles the user left
+        for(String pictureId : mAccessiblePins){
+            if(!accessibleIds.contains(pictureId)){
+                changedPins.add(pictureId);
+            }
+        }
+        // the circles the user entered
+        for(String pictureId : accessibleIds){
+            if(!mAccessiblePins.contains(pictureId) && mPlacedPins.containsKey(pictureId)){
+                changedPins.add(pictureId);
+            }
+        }
+        for(String pictureId : changedPins){
+            restyle(mPlacedPins.get(pictureId), accessibleIds.contains(pictureId));
+        }
+        return changedPins.size();
+    }
+
+    /** removes all the pins from the cluster manager */
+    public void clear(){
+        mClusterManager.clearItems();
+        mPlacedPins.clear();
+        mAccessiblePins.clear();
+        mClusterManager.cluster();
+    }
+
+    public int getNbPlacedPins(){
+        return mPlacedPins.size();
+    }
+
+
+//PRIVATE HELPERS
+    private void restyle(Pin pin, boolean isAccessible){
+        pin.setAccessibility(isAccessible);
+        setAccessible(pin.getPhotoObject().getPictureId(), isAccessible);
+        // other renderers show the new style when the pin is rendered again
+        Object renderer = mClusterManager.getRenderer();
+        if(renderer instanceof ClusterRenderer){
+            ((ClusterRenderer) renderer).restyle(pin);
+        }
+    }
+
+    private void setAccessible(String pictureId, boolean isAccessible){
+        if(isAccessible){
+            mAccessiblePins.add(pictureId);
+        }else{
+            mAccessiblePins.remove(pictureId);
+        }
+    }
+}
@@ -23,19 +23,9 @@ public class Pin implements ClusterItem {
     public Pin(PhotoObject picture, boolean isAccessible) {
         mPosition = new LatLng(picture.getLatitude(), picture.getLongitude());
         mPictureAssociated = picture;
-        this.mIsAccessible = isAccessible;
         //Title only useful for testing
         mTitle = picture.getPictureId();
-        //Green Pin if it is accessible
-        if(isAccessible) {
-            color = BitmapDescriptorFactory.HUE_GREEN;
-            zDepth = 30f;
-        }
-        //Yellow pin if not accessible
-        else{
-            color = BitmapDescriptorFactory.HUE_YELLOW;
-            zDepth = 20f;
-        }
+        setStyle(isAccessible);
     }
 
     @Override
@@ -63,7 +53,22 @@ public class Pin implements ClusterItem {
         return mTitle;
     }
 
+    /** changes the accessibility and the color of the pin, its marker has to be restyled to show it */
     public void setAccessibility(boolean newAccessibility){
-        mIsAccessible = newAccessibility;
+        setStyle(newAccessibility);
+    }
+
+    private void setStyle(boolean isAccessible){
+        mIsAccessible = isAccessible;
+        //Green Pin if it is accessible
+        if(isAccessible) {
+            color = BitmapDescriptorFactory.HUE_GREEN;
+            zDepth = 30f;
+        }
+        //Yellow pin if not accessible
+        else{
+            color = BitmapDescriptorFactory.HUE_YELLOW;
+            zDepth = 20f;
+        }
     }
 }
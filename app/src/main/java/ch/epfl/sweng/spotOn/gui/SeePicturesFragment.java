@@ -13,11 +13,13 @@ import android.widget.GridView;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 
+import java.util.Set;
+
 import ch.epfl.sweng.spotOn.R;
 import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
-import ch.epfl.sweng.spotOn.localObjects.LocalDatabaseListener;
+import ch.epfl.sweng.spotOn.localObjects.LocalDatabaseChangeListener;
 
-public class SeePicturesFragment extends Fragment implements LocalDatabaseListener{
+public class SeePicturesFragment extends Fragment implements LocalDatabaseChangeListener{
 
     public final static int DEFAULT_ORDER=0;
     public final static int UPVOTE_ORDER=1;
@@ -36,7 +38,7 @@ public class SeePicturesFragment extends Fragment implements LocalDatabaseListen
 
         mView = inflater.inflate(R.layout.activity_see_pictures, container, false);
         mGridView = (GridView) mView.findViewById(R.id.gridview);
-        mImageAdapter = new ImageAdapter(mView.getContext(),DEFAULT_ORDER);
+        mImageAdapter = new ImageAdapter(mView.getContext(),mOrdering);
         mGridView.setAdapter(mImageAdapter);
 
         mGridView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
@@ -57,17 +59,22 @@ public class SeePicturesFragment extends Fragment implements LocalDatabaseListen
     public void refreshGrid(int ordering){
         if(mGridView!=null&&mView!=null){
             mOrdering=ordering;
-            mImageAdapter= new ImageAdapter(mView.getContext(), mOrdering);
-            mGridView.invalidateViews();
-            mGridView.setAdapter(mImageAdapter);
+            //the adapter keeps the pictures sorted, it only has to switch to the wanted order
+            mImageAdapter.setOrdering(mOrdering);
+            refreshEmptyGridInfo();
+        }
+    }
 
+    /* shows a message instead of the grid when there is no picture */
+    private void refreshEmptyGridInfo(){
+        if(mGridView!=null&&mView!=null){
             if(getActivity()==null){
                 Log.d("SeePicturesFragment","Fragment is in background, ");
             }else {
                 getActivity().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        //create a new adapter and refresh the gridView
+                        //show the grid only if there are pictures
                         LinearLayout emptyLayout = (LinearLayout) mView.findViewById(R.id.empty_grid_info);
                         RelativeLayout gridLayout = (RelativeLayout) mView.findViewById(R.id.grid_layout);
                         if (mImageAdapter.getCount() == 0) {
@@ -93,7 +100,18 @@ public class SeePicturesFragment extends Fragment implements LocalDatabaseListen
 
     @Override
     public void databaseUpdated() {
-        refreshGrid(mOrdering);
+        if(mImageAdapter!=null){
+            mImageAdapter.refresh();
+        }
+        refreshEmptyGridInfo();
+    }
+
+    @Override
+    public void databaseChanged(Set<String> addedIds, Set<String> changedIds, Set<String> removedIds) {
+        if(mImageAdapter!=null){
+            mImageAdapter.refresh(addedIds, changedIds, removedIds);
+        }
+        refreshEmptyGridInfo();
     }
 
     public static ImageAdapter getImageAdapter(){
@@ -157,6 +157,8 @@ public class TabActivity extends AppCompatActivity{
         //disable the service checker to remove the toast
         ServicesChecker.allowDisplayingToasts(false);
         LocalDatabase.getInstance().clear();
+        // the pins are removed even if there is no location to reconcile them with the empty database
+        mMapFragment.clearPins();
     }
 
 
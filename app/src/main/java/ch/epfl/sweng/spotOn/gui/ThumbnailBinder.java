@@ -0,0 +1,125 @@
+package ch.epfl.sweng.spotOn.gui;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+
+/**
+ * Binds the thumbnails of the pictures to the recycled views of the grid without decoding on the main thread :
+ * a thumbnail already decoded is shown at once, the others are decoded in the background and shown when ready.
+ * When a view is recycled for another picture, the decoding for its previous picture is cancelled, so that a fling
+ * only decodes the thumbnails that are still on screen. The request bound to a view is kept in its tag.
+ * Meant to be used from the main thread only.
+ */
+public class ThumbnailBinder {
+
+    private final static int NB_DECODE_THREADS = 2;
+
+    private static ExecutorService mDecodeExecutor = null;
+
+    private final Handler mMainHandler;
+
+
+    public ThumbnailBinder(){
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * Shows the thumbnail of the photo in the view, does nothing if the view already shows (or is loading) it
+     */
+    public void bind(final ImageView view, final PhotoObject photo){
+        Object tag = view.getTag();
+        if(tag instanceof BindRequest && ((BindRequest) tag).photo == photo){
+            return;
+        }
+        cancel(view);
+        final BindRequest request = new BindRequest(photo);
+        view.setTag(request);
+        Bitmap thumbnail = photo.getThumbnailIfDecoded();
+        if(thumbnail != null){
+            view.setImageBitmap(thumbnail);
+            return;
+        }
+        view.setImageDrawable(null);
+        request.task = getDecodeExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                if(request.cancelled){
+                    return;
+                }
+                final Bitmap decodedThumbnail = photo.getThumbnail();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the view may have been recycled for another picture in the meantime
+                        if(!request.cancelled && view.getTag() == request){
+                            view.setImageBitmap(decodedThumbnail);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /** stops loading the thumbnail of the view, if any, and forgets which picture it shows */
+    public void cancel(ImageView view){
+        Object tag = view.getTag();
+        if(tag instanceof BindRequest){
+            BindRequest request = (BindRequest) tag;
+            request.cancelled = true;
+            if(request.task != null){
+                request.task.cancel(false);
+            }
+            view.setTag(null);
+        }
+    }
+
+
+    /** @return the background threads decoding the thumbnails, shared with the thumbnail markers of the map */
+    static synchronized ExecutorService getDecodeExecutor(){
+        if(mDecodeExecutor == null){
+            mDecodeExecutor = Executors.newFixedThreadPool(NB_DECODE_THREADS, new ThreadFactory() {
+                private final AtomicInteger mThreadCount = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "ThumbnailBind-" + mThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mDecodeExecutor;
+    }
+
+
+//PRIVATE HELPERS
+    private static class BindRequest {
+        final PhotoObject photo;
+        volatile boolean cancelled;
+        Future<?> task;
+
+        BindRequest(PhotoObject photo){
+            this.photo = photo;
+            this.cancelled = false;
+        }
+    }
+}
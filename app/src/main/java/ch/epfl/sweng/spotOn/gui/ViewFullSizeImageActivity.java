@@ -82,6 +82,7 @@ public class ViewFullSizeImageActivity extends Activity {
         int position = displayImageIntent.getIntExtra("position", SeePicturesFragment.mDefaultItemPosition);
         viewPager.setCurrentItem(position);
         updateCurrentMedia(position);
+        mFullScreenImageAdapter.prefetchAround(position);
 
         viewPager.addOnPageChangeListener(new ViewPager.OnPageChangeListener() {
             @Override
@@ -91,6 +92,7 @@ public class ViewFullSizeImageActivity extends Activity {
 
             @Override
             public void onPageSelected(int position) {
+                mFullScreenImageAdapter.prefetchAround(position);
                 String wantedPicId = mFullScreenImageAdapter.getPicIdAtPosition(position);
                 // If the picture is not in the local database anymore (author of the piture just erased it,
                 // or the user is walking and the picture he is watching is not in range anymore...)
@@ -111,6 +113,12 @@ public class ViewFullSizeImageActivity extends Activity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mFullScreenImageAdapter.stopPrefetching();
+    }
+
     private void updateCurrentMedia(int position) {
         mFullScreenImageAdapter.setCurrentMedia(position);
         mFullScreenImageAdapter.refreshVoteTextView(position);
@@ -4,9 +4,9 @@ package ch.epfl.sweng.spotOn.gui;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.util.DisplayMetrics;
 import android.widget.ImageView;
 
 import com.google.android.gms.tasks.OnCompleteListener;
@@ -18,6 +18,7 @@ import com.google.firebase.database.ValueEventListener;
 
 import ch.epfl.sweng.spotOn.R;
 import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
+import ch.epfl.sweng.spotOn.media.FullSizeImageLoader;
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 import ch.epfl.sweng.spotOn.media.PhotoObjectStoredInDatabase;
 import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
@@ -47,6 +48,8 @@ public class ViewUserPhotoActivity extends Activity {
             }
         }
         if(retrieveFromServer) {
+            // the picture fills the screen, it is decoded at its size
+            final DisplayMetrics screen = getResources().getDisplayMetrics();
             Query photoByPictureId = DatabaseRef.getMediaDirectory().orderByChild("pictureId").equalTo(pictureId);
             photoByPictureId.addListenerForSingleValueEvent(new ValueEventListener() {
                 @Override
@@ -54,16 +57,15 @@ public class ViewUserPhotoActivity extends Activity {
                     for (DataSnapshot photoSnapshot : dataSnapshot.getChildren()) {
                         if (photoSnapshot.getKey().equals(pictureId)) {
                             PhotoObject photoObject = photoSnapshot.getValue(PhotoObjectStoredInDatabase.class).convertToPhotoObject();
-                            photoObject.retrieveFullsizeImage(true, new OnCompleteListener<byte[]>() {
+                            FullSizeImageLoader.getInstance().load(photoObject, screen.widthPixels, screen.heightPixels).addOnCompleteListener(new OnCompleteListener<Bitmap>() {
                                 @Override
-                                public void onComplete(@NonNull Task<byte[]> retrieveFullSizePicTask) {
+                                public void onComplete(@NonNull Task<Bitmap> retrieveFullSizePicTask) {
                                     if (retrieveFullSizePicTask.getException() != null) {
                                         userPicture.setImageResource(RESOURCE_IMAGE_FAILURE);
                                         throw new Error("ViewUserPhotoActivity : Retrieving fullSizePicture with pictureId : \n" + pictureId + "failed due to :\n " + retrieveFullSizePicTask.getException());
 
                                     } else {
-                                        Bitmap obtainedImage = BitmapFactory.decodeByteArray(retrieveFullSizePicTask.getResult(), 0, retrieveFullSizePicTask.getResult().length);
-                                        userPicture.setImageBitmap(obtainedImage);
+                                        userPicture.setImageBitmap(retrieveFullSizePicTask.getResult());
                                     }
                                 }
                             });
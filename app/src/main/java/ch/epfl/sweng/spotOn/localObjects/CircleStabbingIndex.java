@@ -0,0 +1,188 @@
+package ch.epfl.sweng.spotOn.localObjects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.epfl.sweng.spotOn.localisation.LocalizationUtils;
+
+/**
+ * Index of circles (a center and a radius) answering "which circles contain this point", used by the LocalDatabase
+ * to find the photos viewable from the user's position, each photo having its own radius.
+ * Circles are grouped by levels of radius (each level twice as large as the previous one), and every level is a grid
+ * whose cells are as large as the largest radius of the level : a circle is stored in the cell of its center,
+ * so only the cells neighbouring the point need to be checked on each level.
+ * Circles are identified by their pictureId. Not thread-safe, like the rest of the LocalDatabase.
+ */
+public class CircleStabbingIndex {
+
+    private final static double METERS_PER_DEGREE_OF_LATITUDE = Math.PI * LocalizationUtils.EARTH_RADIUS / 180;
+    // below this value (near the poles), longitude cells are considered as wide as at this latitude
+    private final static double MIN_COS_LATITUDE = 0.01;
+
+    private final double mSmallestCellSizeInMeters;
+    private final Map<Integer, Map<Long, List<Circle>>> mLevels;   // level -> cell key -> circles centered in the cell
+    private final Map<String, Circle> mCircles;
+
+    /**
+     * @param smallestCellSizeInMeters the size of the cells of the first level, which should be close to the smallest radius
+     */
+    public CircleStabbingIndex(double smallestCellSizeInMeters) {
+        if (smallestCellSizeInMeters <= 0) {
+            throw new IllegalArgumentException("cell size should be positive, was " + smallestCellSizeInMeters);
+        }
+        mSmallestCellSizeInMeters = smallestCellSizeInMeters;
+        mLevels = new HashMap<>();
+        mCircles = new HashMap<>();
+    }
+
+    /** adds the circle, or replaces it if the id is already indexed */
+    public void put(String id, double latitude, double longitude, double radiusInMeters) {
+        if (radiusInMeters < 0) {
+            throw new IllegalArgumentException("radius should not be negative, was " + radiusInMeters);
+        }
+        remove(id);
+        int level = levelOf(radiusInMeters);
+        double cellSizeInDegrees = cellSizeInDegrees(level);
+        Circle circle = new Circle(id, latitude, longitude, radiusInMeters, level,
+                cellKey(cellIndex(latitude, cellSizeInDegrees), cellIndex(longitude, cellSizeInDegrees)));
+        Map<Long, List<Circle>> cells = mLevels.get(level);
+        if (cells == null) {
+            cells = new HashMap<>();
+            mLevels.put(level, cells);
+        }
+        List<Circle> cell = cells.get(circle.cellKey);
+        if (cell == null) {
+            cell = new ArrayList<>();
+            cells.put(circle.cellKey, cell);
+        }
+        cell.add(circle);
+        mCircles.put(id, circle);
+    }
+
+    /** changes the radius of an indexed circle, e.g. after a vote on the photo. Does nothing if the id isn't indexed */
+    public void updateRadius(String id, double radiusInMeters) {
+        Circle circle = mCircles.get(id);
+        if (circle != null && circle.radius != radiusInMeters) {
+            put(id, circle.latitude, circle.longitude, radiusInMeters);
+        }
+    }
+
+    public void remove(String id) {
+        Circle circle = mCircles.remove(id);
+        if (circle != null) {
+            Map<Long, List<Circle>> cells = mLevels.get(circle.level);
+            List<Circle> cell = cells.get(circle.cellKey);
+            cell.remove(circle);
+            if (cell.isEmpty()) {
+                cells.remove(circle.cellKey);
+                if (cells.isEmpty()) {
+                    mLevels.remove(circle.level);
+                }
+            }
+        }
+    }
+
+    public boolean contains(String id) {
+        return mCircles.containsKey(id);
+    }
+
+    public int size() {
+        return mCircles.size();
+    }
+
+    public void clear() {
+        mLevels.clear();
+        mCircles.clear();
+    }
+
+    /**
+     * @return the ids of all the circles whose center is strictly closer than their radius to the given position
+     */
+    public List<String> idsContaining(double latitude, double longitude) {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<Integer, Map<Long, List<Circle>>> level : mLevels.entrySet()) {
+            Map<Long, List<Circle>> cells = level.getValue();
+            double cellSizeInDegrees = cellSizeInDegrees(level.getKey());
+            // no circle of this level has a radius larger than a cell
+            double latitudeSpan = cellSizeInDegrees;
+            double cosLatitude = Math.max(MIN_COS_LATITUDE, Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + latitudeSpan))));
+            double longitudeSpan = Math.min(180, latitudeSpan / cosLatitude);
+
+            long minLatitudeCell = cellIndex(latitude - latitudeSpan, cellSizeInDegrees);
+            long maxLatitudeCell = cellIndex(latitude + latitudeSpan, cellSizeInDegrees);
+            long minLongitudeCell = cellIndex(longitude - longitudeSpan, cellSizeInDegrees);
+            long maxLongitudeCell = cellIndex(longitude + longitudeSpan, cellSizeInDegrees);
+
+            long coveredCells = (maxLatitudeCell - minLatitudeCell + 1) * (maxLongitudeCell - minLongitudeCell + 1);
+            if (coveredCells > cells.size()) {
+                for (List<Circle> cell : cells.values()) {
+                    addCirclesContaining(cell, latitude, longitude, result);
+                }
+            } else {
+                for (long latCell = minLatitudeCell; latCell <= maxLatitudeCell; latCell++) {
+                    for (long lngCell = minLongitudeCell; lngCell <= maxLongitudeCell; lngCell++) {
+                        List<Circle> cell = cells.get(cellKey(latCell, lngCell));
+                        if (cell != null) {
+                            addCirclesContaining(cell, latitude, longitude, result);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+// PRIVATE HELPERS
+
+    private static void addCirclesContaining(List<Circle> cell, double latitude, double longitude, List<String> result) {
+        for (Circle c : cell) {
+            if (LocalizationUtils.distanceBetween(latitude, longitude, c.latitude, c.longitude) < c.radius) {
+                result.add(c.id);
+            }
+        }
+    }
+
+    /** @return the smallest level whose cells are at least as large as the radius */
+    private int levelOf(double radiusInMeters) {
+        int level = 0;
+        double cellSize = mSmallestCellSizeInMeters;
+        while (cellSize < radiusInMeters) {
+            cellSize *= 2;
+            level++;
+        }
+        return level;
+    }
+
+    private double cellSizeInDegrees(int level) {
+        return mSmallestCellSizeInMeters * Math.pow(2, level) / METERS_PER_DEGREE_OF_LATITUDE;
+    }
+
+    private static long cellIndex(double degrees, double cellSizeInDegrees) {
+        return (long) Math.floor(degrees / cellSizeInDegrees);
+    }
+
+    private static long cellKey(long latitudeCell, long longitudeCell) {
+        return (latitudeCell << 32) | (longitudeCell & 0xffffffffL);
+    }
+
+    private static class Circle {
+        final String id;
+        final double latitude;
+        final double longitude;
+        final double radius;
+        final int level;
+        final long cellKey;
+
+        Circle(String id, double latitude, double longitude, double radius, int level, long cellKey) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+            this.level = level;
+            this.cellKey = cellKey;
+        }
+    }
+}
@@ -3,50 +3,88 @@ package ch.epfl.sweng.spotOn.localObjects;
 
 import android.graphics.Bitmap;
 import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
+import ch.epfl.sweng.spotOn.localisation.Geohash;
+import ch.epfl.sweng.spotOn.localisation.LocalizationUtils;
 import ch.epfl.sweng.spotOn.localisation.LocationTracker;
 import ch.epfl.sweng.spotOn.localisation.LocationTrackerListener;
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 import ch.epfl.sweng.spotOn.media.PhotoObjectStoredInDatabase;
 import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
+import ch.epfl.sweng.spotOn.user.UserListener;
 import ch.epfl.sweng.spotOn.user.UserManager;
 
 
-public class LocalDatabase implements LocationTrackerListener{
+public class LocalDatabase implements LocationTrackerListener, UserListener{
 
     private static LocalDatabase mSingleInstance = null;
 
     private Map<String,PhotoObject> mediaDataMap;
-    private static Map<String, PhotoObject> mViewableMediaDataMap;
+    private SpatialGridIndex mPositionsIndex;   // positions of all the photos of mediaDataMap
+    private CircleStabbingIndex mViewCirclesIndex;  // circles from which the photos of mediaDataMap can be seen
+    private Map<String, PhotoObject> mViewableMediasCache; // viewable photos from mCachedLocation, null when outdated
     private List<LocalDatabaseListener> mListeners;
 
     private Location mCachedLocation;
 
-    private long mLastRefreshDate;
-
     private LocationTracker refToLocationTracker;
 
+    // changes received from firebase since the listeners were last notified
+    private Set<String> mPendingAddedIds;
+    private Set<String> mPendingChangedIds;
+    private Set<String> mPendingRemovedIds;
+    private boolean mPendingChangesFlushScheduled;
+    private Handler mMainHandler;
+
+    // queries currently followed by the auto refresh, by geohash prefix (or author)
+    private Map<String, Query> mAutoRefreshQueries;
+    private ChildEventListener mAutoRefreshListener;
+    // identifies the latest forceSingleRefresh(), so that answers to older ones are ignored
+    private int mLastFetchRound;
+
+    // thumbnails are decoded in the background, the content is only updated once a whole batch is decoded
+    private PhotoDecodePipeline mDecodePipeline;
+    // a refresh is decoded at a time : the content fetched meanwhile waits for it, only the latest one is kept
+    private boolean mRefreshDecoding;
+    private List<DataSnapshot> mWaitingFetchedSnapshots;
+    private Location mWaitingFetchLocation;
+    private Map<String, DataSnapshot> mIncomingSnapshots;  // new photos from the child listener, waiting to be decoded
+    private Map<String, DataSnapshot> mDecodingIncomingSnapshots;   // new photos from the child listener being decoded
+    private Set<String> mIncomingIdsSinceRefresh;   // photos added by the child listener since the last refresh was published
+    private boolean mIncomingDecodeScheduled;
+
     // these settings help to avoid unnecessary refreshes of the database
-    private final static int TIME_INTERVAL_FOR_MAXIMUM_REFRESH_RATE_FIREBASE = 1500; // refresh the localDatabase at most every 1.5 seconds
+    private final static int TIME_INTERVAL_FOR_MAXIMUM_REFRESH_RATE_FIREBASE = 1500; // notify the listeners of firebase changes at most every 1.5 seconds
     private final static int TIME_INTERVAL_FOR_MAXIMUM_REFRESH_RATE_LOCATION = 3*1000; // refresh the localDatabase at most every 3 seconds
 
     private final static int TIME_INTERVAL_FOR_MINIMUM_REFRESH_RATE = 3*60*1000; // refresh at least every 5 minutes
     private final static int MINIMUM_DISTANCE_REFRESH_THRESHOLD = 3; // won't refresh if the last Location was closer than this (don't refresh due to "noise" in the Location sensors)
 
-    private final static double FETCH_RADIUS = 2*PhotoObject.MAX_VIEW_RADIUS; // the radius in which we fetch pictures, in km
+    private final static double FETCH_RADIUS = 2*PhotoObject.MAX_VIEW_RADIUS; // the radius in which we fetch pictures, in meters
+    private final static double POSITIONS_INDEX_CELL_SIZE = 1000; // in meters
+    private final static double VIEW_CIRCLES_INDEX_SMALLEST_CELL_SIZE = PhotoObject.MIN_VIEW_RADIUS; // in meters
+    private final static String AUTHOR_QUERY_KEY = "author:"; // can't be mistaken for a geohash prefix
 
 
 
@@ -64,9 +102,25 @@ public class LocalDatabase implements LocationTrackerListener{
     private LocalDatabase(LocationTracker l) {
         mediaDataMap = new HashMap<>();
         mListeners = new ArrayList<>();
-        mViewableMediaDataMap = new HashMap<>();
+        mPositionsIndex = new SpatialGridIndex(POSITIONS_INDEX_CELL_SIZE);
+        mViewCirclesIndex = new CircleStabbingIndex(VIEW_CIRCLES_INDEX_SMALLEST_CELL_SIZE);
+        mViewableMediasCache = null;
         refToLocationTracker = l;
-        mLastRefreshDate = Calendar.getInstance().getTimeInMillis();
+        mPendingAddedIds = new HashSet<>();
+        mPendingChangedIds = new HashSet<>();
+        mPendingRemovedIds = new HashSet<>();
+        mPendingChangesFlushScheduled = false;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mAutoRefreshQueries = new HashMap<>();
+        mLastFetchRound = 0;
+        mDecodePipeline = new PhotoDecodePipeline();
+        mRefreshDecoding = false;
+        mWaitingFetchedSnapshots = null;
+        mWaitingFetchLocation = null;
+        mIncomingSnapshots = new LinkedHashMap<>();
+        mDecodingIncomingSnapshots = new HashMap<>();
+        mIncomingIdsSinceRefresh = new HashSet<>();
+        mIncomingDecodeScheduled = false;
     }
 
 
@@ -110,14 +164,25 @@ public class LocalDatabase implements LocationTrackerListener{
     /** Adds a photoObject to the database, regardless of its position. NB : listeners need to be updated manually after that  */
     public void addPhotoObject(PhotoObject photo){
         mediaDataMap.put(photo.getPictureId(), photo);
-        addToViewableMediaIfWithinViewableRange(photo);
+        mPositionsIndex.put(photo.getPictureId(), photo.getLatitude(), photo.getLongitude());
+        mViewCirclesIndex.put(photo.getPictureId(), photo.getLatitude(), photo.getLongitude(), photo.getRadius());
+        mViewableMediasCache = null;
     }
 
     /** remove a photoObject from the LocalDatabase - NB : listeners need to be updated manually after that  */
     public void removePhotoObject(String key){
         mediaDataMap.remove(key);
-        if(mViewableMediaDataMap.containsKey(key)){
-            mViewableMediaDataMap.remove(key);
+        mPositionsIndex.remove(key);
+        mViewCirclesIndex.remove(key);
+        mViewableMediasCache = null;
+    }
+
+    /** updates the circle from which the photo can be seen after its radius changed, e.g. after a vote
+     *  NB : listeners need to be updated manually after that  */
+    public void updateRadius(PhotoObject photo){
+        if(mediaDataMap.get(photo.getPictureId()) == photo){
+            mViewCirclesIndex.updateRadius(photo.getPictureId(), photo.getRadius());
+            mViewableMediasCache = null;
         }
     }
 
@@ -125,7 +190,7 @@ public class LocalDatabase implements LocationTrackerListener{
      *  NB : listeners need to be updated manually after that  */
     public void addIfWithinFetchRadius(PhotoObject newObject, Location databaseCachedLocation) {
         if( mCachedLocation!=null ) {
-            if (newObject.obtainLocation().distanceTo(databaseCachedLocation) < FETCH_RADIUS) {
+            if (distanceTo(newObject, databaseCachedLocation) < FETCH_RADIUS) {
                 if (!mediaDataMap.containsKey(newObject.getPictureId())) {
                     addPhotoObject(newObject);
                 }
@@ -147,6 +212,8 @@ public class LocalDatabase implements LocationTrackerListener{
 
     /** notifies all listeners of a change of the database content - public as it needs to be called in tests after manually adding objects*/
     public void notifyListeners(){
+        // a full notification supersedes the incremental changes not yet sent
+        discardPendingChanges();
         if( ! mListeners.isEmpty() ){
             for(LocalDatabaseListener l : mListeners){
                 l.databaseUpdated();
@@ -155,14 +222,26 @@ public class LocalDatabase implements LocationTrackerListener{
     }
 
     /** return a map containing all PhotoObjects whose radius is wide enough to be visible
-     *  from the currently cached location */
+     *  from the currently cached location (empty if there is none). The map can't be modified */
     public Map<String, PhotoObject> getViewableMedias(){
-        return mViewableMediaDataMap;
+        if(mViewableMediasCache == null){
+            Map<String, PhotoObject> viewableMedias = new HashMap<>();
+            Location mLocationTempCopy = copyCachedLocation();
+            if(mLocationTempCopy == null){
+                Log.d("LocalDatabase","WARNING : called getViewableMedias() while holding no valid cached location");
+            }else{
+                for(String id : mViewCirclesIndex.idsContaining(mLocationTempCopy.getLatitude(), mLocationTempCopy.getLongitude())){
+                    viewableMedias.put(id, mediaDataMap.get(id));
+                }
+            }
+            mViewableMediasCache = Collections.unmodifiableMap(viewableMedias);
+        }
+        return mViewableMediasCache;
     }
 
     public static Map<String, Bitmap> getViewableThumbnails() {
         HashMap<String, Bitmap> resultMap = new HashMap<>();
-        for(PhotoObject p : mViewableMediaDataMap.values()){
+        for(PhotoObject p : getInstance().getViewableMedias().values()){
             resultMap.put(p.getPictureId(), p.getThumbnail());
         }
         return resultMap;
@@ -173,6 +252,21 @@ public class LocalDatabase implements LocationTrackerListener{
         return mediaDataMap;
     }
 
+    /** return the ids of the photos whose circle contains the position, i.e. that can be seen from there */
+    public Set<String> getIdsOfMediasViewableFrom(double latitude, double longitude){
+        return new HashSet<>(mViewCirclesIndex.idsContaining(latitude, longitude));
+    }
+
+    /** return the photos of the database inside the box, in degrees. The box can cross the antimeridian (west > east) */
+    public List<PhotoObject> getMediasInBounds(double south, double west, double north, double east){
+        List<String> ids = mPositionsIndex.idsInBox(south, west, north, east);
+        List<PhotoObject> result = new ArrayList<>(ids.size());
+        for(String id : ids){
+            result.add(mediaDataMap.get(id));
+        }
+        return result;
+    }
+
 
     public void addListener(LocalDatabaseListener l){
         mListeners.add(l);
@@ -181,134 +275,468 @@ public class LocalDatabase implements LocationTrackerListener{
 
     /** clears all data from the LocalDatabase */
     public void clear() {
-        mediaDataMap.clear();
-        mViewableMediaDataMap.clear();
+        clearWithoutNotifying();
         notifyListeners();
     }
 
 // PRIVATE METHODS
-    /** adds the media to the list of viewable media if within viewable range */
-    private void addToViewableMediaIfWithinViewableRange(PhotoObject po){
-        if(mCachedLocation==null){
-            Log.d("LocalDatabase","WARNING : called addToViewableMediaIfWithinRadius() called while holding no valid cached location");
-        }else {
-            if (mCachedLocation.distanceTo(po.obtainLocation()) < po.getRadius()) {
-                mViewableMediaDataMap.put(po.getPictureId(), po);
-            }
-        }
+    private void clearWithoutNotifying(){
+        mediaDataMap.clear();
+        mPositionsIndex.clear();
+        mViewCirclesIndex.clear();
+        mViewableMediasCache = null;
     }
 
-    /** refreshes the map of viewable photo */
-    private void refreshViewablePhotos() {
-        if( mCachedLocation == null){
-            Log.d("LocalDatabase", "WARNING : called refreshViewablePhotos, but no valid cachedLocation");
-        }else {
-            for (PhotoObject po : mediaDataMap.values()) {
-                // compare the object's location with the location provided by the LocationTracker
-                if (po.obtainLocation().distanceTo(mCachedLocation) < po.getRadius()) {
-                    if (!mViewableMediaDataMap.containsKey(po.getPictureId())) {
-                        mViewableMediaDataMap.put(po.getPictureId(), po);
-                    }
-                }
+    /** used during initialization, creates the listener following the changes of the medias around the user.
+     *  Each child event only touches the affected PhotoObject, so unchanged thumbnails are never decoded again.
+     *  The listener is attached to the queries of the area in updateAutoRefreshQueries(), once a location is known */
+    private void setAutoRefresh(){
+        mAutoRefreshListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot photoSnapshot, String previousChildName) {
+                applyIncomingPhoto(photoSnapshot);
             }
-        }
-    }
 
-    /** used during initialization, adds a listener to the firebase directory containing the medias */
-    private void setAutoRefresh(){
-        Query photoSortedByTime = DatabaseRef.getMediaDirectory().orderByChild("expireDate").startAt(new Date().getTime());
-        photoSortedByTime.addValueEventListener(new ValueEventListener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if( mSingleInstance.allowRefreshAccordingToMaxRefreshRate() && mCachedLocation!= null){
-                    Location mLocationTempCopy;
-                    synchronized (this) {
-                        mLocationTempCopy = new Location(mCachedLocation);
-                    }
-                    LocalDatabase.getInstance().clear();
-                    String userID;
-                    if(UserManager.getInstance().userIsLoggedIn()) {
-                        userID = UserManager.getInstance().getUser().getUserId();
-                    }
-                    else{
-                        userID = null;
-                    }
-                    for (DataSnapshot photoSnapshot : dataSnapshot.getChildren()) {
-                        PhotoObject photoObject = photoSnapshot.getValue(PhotoObjectStoredInDatabase.class).convertToPhotoObject();
-                        if(userID == null){
-                            LocalDatabase.getInstance().addIfWithinFetchRadius(photoObject, mLocationTempCopy);
-                        }
-                        else if(photoObject.getAuthorId().equals(userID)){
-                            LocalDatabase.getInstance().addUserPictures(photoObject);
-                        }
-                        else if(!(photoObject.getReportersList().contains(userID))) {
-                            LocalDatabase.getInstance().addIfWithinFetchRadius(photoObject, mLocationTempCopy);
-                        }
-                    }
-                    // refresh last refresh date
-                    mLastRefreshDate = Calendar.getInstance().getTimeInMillis();
-                    Log.d("LocalDatabase", "updated via firebase listener : "+LocalDatabase.getInstance().getAllNearbyMediasMap().size() + " photoObjects added");
-                    LocalDatabase.getInstance().refreshViewablePhotos();
-                    LocalDatabase.getInstance().notifyListeners();
+            public void onChildChanged(DataSnapshot photoSnapshot, String previousChildName) {
+                applyIncomingPhoto(photoSnapshot);
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot photoSnapshot) {
+                String pictureId = photoSnapshot.getKey();
+                mIncomingSnapshots.remove(pictureId);
+                mDecodingIncomingSnapshots.remove(pictureId);
+                mIncomingIdsSinceRefresh.remove(pictureId);
+                if(mediaDataMap.containsKey(pictureId)){
+                    removePhotoObject(pictureId);
+                    recordRemovedPhoto(pictureId);
                 }
             }
+
+            @Override
+            public void onChildMoved(DataSnapshot photoSnapshot, String previousChildName) {
+                // the ordering of the queries isn't used locally
+            }
+
             @Override
             public void onCancelled(DatabaseError databaseError) {
                 // Getting Post failed, log a message
                 Log.w("Firebase", "loadPost:onCancelled", databaseError.toException());
             }
-        });
+        };
     }
 
-    /** adds a single-use listener to the firebase directory containing the medias  */
+    /** makes the auto refresh follow the queries covering the fetch circle around the location, and stop following the others */
+    private void updateAutoRefreshQueries(Location location){
+        Map<String, Query> wantedQueries = buildFetchQueries(location);
+        for(String key : new ArrayList<>(mAutoRefreshQueries.keySet())){
+            if(!wantedQueries.containsKey(key)){
+                mAutoRefreshQueries.remove(key).removeEventListener(mAutoRefreshListener);
+            }
+        }
+        for(Map.Entry<String, Query> wanted : wantedQueries.entrySet()){
+            if(!mAutoRefreshQueries.containsKey(wanted.getKey())){
+                wanted.getValue().addChildEventListener(mAutoRefreshListener);
+                mAutoRefreshQueries.put(wanted.getKey(), wanted.getValue());
+            }
+        }
+    }
+
+    /** builds the queries returning the photos whose geohash starts with one of the prefixes covering the fetch circle,
+     *  so that only the photos of the area are downloaded, plus a query for the photos of the user wherever they are */
+    private Map<String, Query> buildFetchQueries(Location location){
+        Map<String, Query> queries = new HashMap<>();
+        for(String prefix : Geohash.coveringPrefixes(location.getLatitude(), location.getLongitude(), FETCH_RADIUS)){
+            queries.put(prefix, DatabaseRef.getMediaDirectory().orderByChild("geohash")
+                    .startAt(prefix).endAt(Geohash.endOfPrefixRange(prefix)));
+        }
+        String userID = currentUserId();
+        if(userID != null){
+            queries.put(AUTHOR_QUERY_KEY + userID, DatabaseRef.getMediaDirectory().orderByChild("authorID").equalTo(userID));
+        }
+        return queries;
+    }
+
+    /** fetches once the content of all the queries of the area, and replaces the content of the database with it */
     // NB : can't have a null mLocation, since this is only called when location updated
     private void forceSingleRefresh(){
-        Query photoSortedByTime = DatabaseRef.getMediaDirectory().orderByChild("expireDate").startAt(new Date().getTime());
-        photoSortedByTime.addListenerForSingleValueEvent(new ValueEventListener() {
+        Location mLocationTempCopy = copyCachedLocation();
+        if(mLocationTempCopy==null){
+            Log.d("LocalDatabase","WARNING : calling forceSingleRefresh() while holding no valid mCachedLocation ");
+        }else {
+            mLastFetchRound++;
+            Collection<Query> queries = buildFetchQueries(mLocationTempCopy).values();
+            FetchRound round = new FetchRound(mLastFetchRound, queries.size(), mLocationTempCopy);
+            for (Query query : queries) {
+                query.addListenerForSingleValueEvent(round);
+            }
+        }
+    }
+
+    /** collects the answers of the queries of one forceSingleRefresh(), and merges them once they all arrived */
+    private class FetchRound implements ValueEventListener {
+        private final int mRoundId;
+        private final Location mFetchLocation;
+        private final List<DataSnapshot> mResults;
+        private int mNbPendingQueries;
+        private boolean mFailed;
+
+        FetchRound(int roundId, int nbQueries, Location fetchLocation){
+            mRoundId = roundId;
+            mFetchLocation = fetchLocation;
+            mResults = new ArrayList<>();
+            mNbPendingQueries = nbQueries;
+            mFailed = false;
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            mResults.add(dataSnapshot);
+            onQueryDone();
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            // Getting Post failed, log a message
+            Log.w("Firebase", "loadPost:onCancelled", databaseError.toException());
+            mFailed = true;
+            onQueryDone();
+        }
+
+        private void onQueryDone(){
+            mNbPendingQueries--;
+            if(mNbPendingQueries == 0){
+                if(mRoundId != mLastFetchRound){
+                    Log.d("LocalDatabase", "ignoring the result of an outdated refresh");
+                }else if(mFailed){
+                    // replacing the content would drop the photos of the failed queries
+                    Log.d("LocalDatabase", "a query of the refresh failed, keeping the current content");
+                }else{
+                    replaceContent(mResults, mFetchLocation);
+                }
+            }
+        }
+    }
+
+    /** decodes in the background the photos of the fetched snapshots, then replaces the content of the database with them.
+     *  If an older refresh is still decoding, it is not abandoned : otherwise, while the user walks, the refreshes would
+     *  keep cancelling each other and nothing would be published. The snapshots wait for it, and replace any older
+     *  ones waiting, then only the photos it didn't decode have to be */
+    private void replaceContent(List<DataSnapshot> fetchedSnapshots, Location fetchLocation){
+        if(mRefreshDecoding){
+            Log.d("LocalDatabase", "a refresh is being decoded, the new content waits for it");
+            mWaitingFetchedSnapshots = fetchedSnapshots;
+            mWaitingFetchLocation = fetchLocation;
+            return;
+        }
+        List<DataSnapshot> photoSnapshots = new ArrayList<>();
+        Set<String> fetchedIds = new HashSet<>();
+        for(DataSnapshot dataSnapshot : fetchedSnapshots) {
+            for (DataSnapshot photoSnapshot : dataSnapshot.getChildren()) {
+                photoSnapshots.add(photoSnapshot);
+                fetchedIds.add(photoSnapshot.getKey());
+            }
+        }
+        // the photos received through the child listener that wait for their decoding and are in the fetched
+        // snapshots are decoded with them
+        mIncomingSnapshots.keySet().removeAll(fetchedIds);
+        mIncomingIdsSinceRefresh.removeAll(fetchedIds);
+        mRefreshDecoding = true;
+        // keep the photos we already know, to avoid decoding their thumbnail again
+        mDecodePipeline.submit(photoSnapshots, new HashSet<>(mediaDataMap.keySet()),
+                new WantedPhotoFilter(currentUserId(), currentUserReports(), fetchLocation), new PhotoDecodePipeline.BatchListener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if(mCachedLocation==null){
-                    Log.d("LocalDatabase","WARNING : calling forceSingleRefresh() while holding no valid mCachedLocation ");
-                }else {
-                    LocalDatabase.getInstance().clear();
-                    Location mLocationTempCopy;
-                    synchronized (this) {
-                        mLocationTempCopy = new Location(mCachedLocation);
-                    }
-                    String userID;
-                    if(UserManager.getInstance().userIsLoggedIn()) {
-                        userID = UserManager.getInstance().getUser().getUserId();
-                    }
-                    else{
-                        userID = null;
-                    }
-                    for (DataSnapshot photoSnapshot : dataSnapshot.getChildren()) {
-                        PhotoObject photoObject = photoSnapshot.getValue(PhotoObjectStoredInDatabase.class).convertToPhotoObject();
-                        if(userID == null){
-                            LocalDatabase.getInstance().addIfWithinFetchRadius(photoObject, mLocationTempCopy);
-                        }
-                        else if(photoObject.getAuthorId().equals(userID)){
-                            LocalDatabase.getInstance().addUserPictures(photoObject);
-                        }
-                        else if(!(photoObject.getReportersList().contains(userID))) {
-                            LocalDatabase.getInstance().addIfWithinFetchRadius(photoObject, mLocationTempCopy);
-                        }
+            public void onBatchDecoded(List<PhotoDecodePipeline.DecodedPhoto> decodedPhotos) {
+                mRefreshDecoding = false;
+                publishContent(decodedPhotos);
+                if(mWaitingFetchedSnapshots != null){
+                    List<DataSnapshot> waitingSnapshots = mWaitingFetchedSnapshots;
+                    Location waitingLocation = mWaitingFetchLocation;
+                    mWaitingFetchedSnapshots = null;
+                    mWaitingFetchLocation = null;
+                    replaceContent(waitingSnapshots, waitingLocation);
+                }
+            }
+        });
+    }
+
+    /** replaces the content of the database with a decoded batch, then notifies the listeners */
+    private void publishContent(List<PhotoDecodePipeline.DecodedPhoto> decodedPhotos){
+        Map<String, PhotoObject> previousPhotos = new HashMap<>(mediaDataMap);
+        // the batch may have been filtered before the reports of the user were loaded
+        String userID = currentUserId();
+        Set<String> reportedPictures = currentUserReports();
+        clearWithoutNotifying();
+        for(PhotoDecodePipeline.DecodedPhoto decodedPhoto : decodedPhotos) {
+            String pictureId = decodedPhoto.storedPhoto.getPictureId();
+            if(reportedPictures.contains(pictureId) && !decodedPhoto.storedPhoto.getAuthorID().equals(userID)){
+                continue;
+            }
+            // the photos of the user can be returned by several queries
+            if (!mediaDataMap.containsKey(pictureId)) {
+                PhotoObject photo = decodedPhoto.photo;
+                if (photo == null) {
+                    photo = previousPhotos.get(pictureId);
+                    if (photo != null) {
+                        decodedPhoto.storedPhoto.updatePhotoObject(photo);
+                    } else {
+                        // removed from the database while the batch was decoded, which should be rare
+                        photo = decodedPhoto.storedPhoto.convertToPhotoObject();
                     }
-                    // refresh last refresh date
-                    mLastRefreshDate = Calendar.getInstance().getTimeInMillis();
-                    Log.d("LocalDatabase", "updated via force single refresh, " + LocalDatabase.getInstance().getAllNearbyMediasMap().size() + " photoObjects added");
-                    LocalDatabase.getInstance().refreshViewablePhotos();
-                    LocalDatabase.getInstance().notifyListeners();
                 }
+                decodedPhoto.storedPhoto.applyLegacyVotesOfCurrentUser();
+                addPhotoObject(photo);
+            }
+        }
+        // the photos added by the child listener while the batch was decoded aren't in the fetched snapshots
+        for(String pictureId : mIncomingIdsSinceRefresh){
+            PhotoObject photo = previousPhotos.get(pictureId);
+            if(photo != null && !mediaDataMap.containsKey(pictureId)){
+                addPhotoObject(photo);
+            }
+        }
+        mIncomingIdsSinceRefresh.clear();
+        Log.d("LocalDatabase", "updated via force single refresh, " + mediaDataMap.size() + " photoObjects added");
+        notifyListeners();
+    }
+
+    /** applies a photo added or changed in firebase to the local content, then records the change for the listeners.
+     *  The new photos are only added once decoded in the background */
+    private void applyIncomingPhoto(DataSnapshot photoSnapshot){
+        Location mLocationTempCopy = copyCachedLocation();
+        if(mLocationTempCopy==null){
+            // everything will be fetched by forceSingleRefresh() once a location is available
+            return;
+        }
+        String pictureId = photoSnapshot.getKey();
+        PhotoObject knownPhoto = mediaDataMap.get(pictureId);
+        if(knownPhoto != null){
+            PhotoObjectStoredInDatabase storedPhoto = photoSnapshot.getValue(PhotoObjectStoredInDatabase.class);
+            storedPhoto.updatePhotoObject(knownPhoto);
+            if(isWanted(storedPhoto, currentUserId(), currentUserReports(), mLocationTempCopy)){
+                updateRadius(knownPhoto);
+                recordChangedPhoto(pictureId);
+            }else{
+                removePhotoObject(pictureId);
+                recordRemovedPhoto(pictureId);
+            }
+        }else{
+            // replaces an older version still waiting to be decoded
+            mIncomingSnapshots.put(pictureId, photoSnapshot);
+            scheduleIncomingPhotosDecode();
+        }
+    }
+
+    /** at startup the child events come one per photo, so the ones received together are decoded in a single batch */
+    private void scheduleIncomingPhotosDecode(){
+        if(!mIncomingDecodeScheduled){
+            mIncomingDecodeScheduled = true;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    decodeIncomingPhotos();
+                }
+            });
+        }
+    }
+
+    private void decodeIncomingPhotos(){
+        mIncomingDecodeScheduled = false;
+        Location mLocationTempCopy = copyCachedLocation();
+        if(mLocationTempCopy==null){
+            return;
+        }
+        List<DataSnapshot> snapshots = new ArrayList<>();
+        final Set<String> submittedIds = new HashSet<>();
+        Iterator<Map.Entry<String, DataSnapshot>> waiting = mIncomingSnapshots.entrySet().iterator();
+        while(waiting.hasNext()){
+            Map.Entry<String, DataSnapshot> entry = waiting.next();
+            // a newer version of a photo being decoded is applied once the decoding is done
+            if(!mDecodingIncomingSnapshots.containsKey(entry.getKey())){
+                snapshots.add(entry.getValue());
+                submittedIds.add(entry.getKey());
+                waiting.remove();
             }
+        }
+        if(snapshots.isEmpty()){
+            return;
+        }
+        for(DataSnapshot snapshot : snapshots){
+            mDecodingIncomingSnapshots.put(snapshot.getKey(), snapshot);
+        }
+        mDecodePipeline.submit(snapshots, Collections.<String>emptySet(),
+                new WantedPhotoFilter(currentUserId(), currentUserReports(), mLocationTempCopy), new PhotoDecodePipeline.BatchListener() {
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                // Getting Post failed, log a message
-                Log.w("Firebase", "loadPost:onCancelled", databaseError.toException());
+            public void onBatchDecoded(List<PhotoDecodePipeline.DecodedPhoto> decodedPhotos) {
+                publishIncomingPhotos(submittedIds, decodedPhotos);
             }
         });
     }
 
+    private void publishIncomingPhotos(Set<String> submittedIds, List<PhotoDecodePipeline.DecodedPhoto> decodedPhotos){
+        Location mLocationTempCopy = copyCachedLocation();
+        String userID = currentUserId();
+        Set<String> reportedPictures = currentUserReports();
+        for(PhotoDecodePipeline.DecodedPhoto decodedPhoto : decodedPhotos){
+            String pictureId = decodedPhoto.storedPhoto.getPictureId();
+            if(!mDecodingIncomingSnapshots.containsKey(pictureId) || mediaDataMap.containsKey(pictureId)){
+                continue;   // removed from firebase, or fetched by a refresh, in the meantime
+            }
+            PhotoObjectStoredInDatabase latestVersion = decodedPhoto.storedPhoto;
+            DataSnapshot newerSnapshot = mIncomingSnapshots.remove(pictureId);
+            if(newerSnapshot != null){
+                latestVersion = newerSnapshot.getValue(PhotoObjectStoredInDatabase.class);
+                latestVersion.updatePhotoObject(decodedPhoto.photo);
+            }
+            if(mLocationTempCopy != null && isWanted(latestVersion, userID, reportedPictures, mLocationTempCopy)){
+                latestVersion.applyLegacyVotesOfCurrentUser();
+                addPhotoObject(decodedPhoto.photo);
+                mIncomingIdsSinceRefresh.add(pictureId);
+                recordAddedPhoto(pictureId);
+            }
+        }
+        mDecodingIncomingSnapshots.keySet().removeAll(submittedIds);
+        if(!mIncomingSnapshots.isEmpty()){
+            // photos received during the decoding, or newer versions of photos that the filter rejected
+            scheduleIncomingPhotosDecode();
+        }
+    }
+
+    /** keeps the photos wanted around the given location, can be used from the decoding threads */
+    private static class WantedPhotoFilter implements PhotoDecodePipeline.PhotoFilter {
+        private final String mUserID;
+        private final Set<String> mReportedPictures;
+        private final Location mLocation;
+
+        WantedPhotoFilter(String userID, Set<String> reportedPictures, Location location){
+            mUserID = userID;
+            mReportedPictures = reportedPictures;
+            mLocation = location;
+        }
+
+        @Override
+        public boolean accept(PhotoObjectStoredInDatabase storedPhoto){
+            return isWanted(storedPhoto, mUserID, mReportedPictures, mLocation);
+        }
+    }
+
+    /** decides if a photo from firebase belongs to the local database, without converting it to a PhotoObject :
+     *  expired pictures never, pictures of the user always, pictures reported by the user never, and the others if they are in the fetch radius */
+    private static boolean isWanted(PhotoObjectStoredInDatabase storedPhoto, String userID, Set<String> reportedPictures,
+                                    Location databaseCachedLocation){
+        // the queries are on the geohash, so the expired photos aren't filtered by the server anymore
+        if(storedPhoto.getExpireDate() < new Date().getTime()){
+            return false;
+        }
+        if(userID != null){
+            if(storedPhoto.getAuthorID().equals(userID)){
+                return true;
+            }
+            if(reportedPictures.contains(storedPhoto.getPictureId())){
+                return false;
+            }
+        }
+        return LocalizationUtils.distanceBetween(storedPhoto.getLatitude(), storedPhoto.getLongitude(),
+                databaseCachedLocation.getLatitude(), databaseCachedLocation.getLongitude()) < FETCH_RADIUS;
+    }
+
+    private static double distanceTo(PhotoObject po, Location location){
+        return LocalizationUtils.distanceBetween(po.getLatitude(), po.getLongitude(), location.getLatitude(), location.getLongitude());
+    }
+
+    /** @return a copy of the pictures reported by the current user, taken on the main thread so that the decoding threads can read it */
+    private Set<String> currentUserReports(){
+        if(UserManager.getInstance().userIsLoggedIn()) {
+            return UserManager.getInstance().getUser().getReportedPictures();
+        }
+        else{
+            return Collections.emptySet();
+        }
+    }
+
+    private String currentUserId(){
+        if(UserManager.getInstance().userIsLoggedIn()) {
+            return UserManager.getInstance().getUser().getUserId();
+        }
+        else{
+            return null;
+        }
+    }
+
+    /** @return a copy of the cached location, or null if there is none */
+    private synchronized Location copyCachedLocation(){
+        if(mCachedLocation==null){
+            return null;
+        }
+        return new Location(mCachedLocation);
+    }
+
+    private void recordAddedPhoto(String pictureId){
+        if(mPendingRemovedIds.remove(pictureId)){
+            mPendingChangedIds.add(pictureId);
+        }else{
+            mPendingAddedIds.add(pictureId);
+        }
+        schedulePendingChangesFlush();
+    }
+
+    private void recordChangedPhoto(String pictureId){
+        if(!mPendingAddedIds.contains(pictureId)){
+            mPendingChangedIds.add(pictureId);
+        }
+        schedulePendingChangesFlush();
+    }
+
+    private void recordRemovedPhoto(String pictureId){
+        // a photo added and removed between two notifications was never seen by the listeners
+        if(!mPendingAddedIds.remove(pictureId)){
+            mPendingChangedIds.remove(pictureId);
+            mPendingRemovedIds.add(pictureId);
+        }
+        schedulePendingChangesFlush();
+    }
+
+    /** child events come one by one (e.g. one per photo at startup), so they are batched before notifying the listeners */
+    private void schedulePendingChangesFlush(){
+        if(!mPendingChangesFlushScheduled){
+            mPendingChangesFlushScheduled = true;
+            mMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingChanges();
+                }
+            }, TIME_INTERVAL_FOR_MAXIMUM_REFRESH_RATE_FIREBASE);
+        }
+    }
+
+    private void flushPendingChanges(){
+        mPendingChangesFlushScheduled = false;
+        if(mPendingAddedIds.isEmpty() && mPendingChangedIds.isEmpty() && mPendingRemovedIds.isEmpty()){
+            return;
+        }
+        Set<String> addedIds = new HashSet<>(mPendingAddedIds);
+        Set<String> changedIds = new HashSet<>(mPendingChangedIds);
+        Set<String> removedIds = new HashSet<>(mPendingRemovedIds);
+        mPendingAddedIds.clear();
+        mPendingChangedIds.clear();
+        mPendingRemovedIds.clear();
+        Log.d("LocalDatabase", "updated via firebase listener : "+addedIds.size()+" added, "+changedIds.size()+" changed, "+removedIds.size()+" removed");
+        for(LocalDatabaseListener l : new ArrayList<>(mListeners)){
+            if(l instanceof LocalDatabaseChangeListener){
+                ((LocalDatabaseChangeListener) l).databaseChanged(addedIds, changedIds, removedIds);
+            }else{
+                l.databaseUpdated();
+            }
+        }
+    }
+
+    private void discardPendingChanges(){
+        mPendingAddedIds.clear();
+        mPendingChangedIds.clear();
+        mPendingRemovedIds.clear();
+    }
+
     private boolean allowRefreshAccordingToNewLocation(Location newLocation){
         if(mCachedLocation==null){
             return true;
@@ -323,16 +751,6 @@ public class LocalDatabase implements LocationTrackerListener{
         }
     }
 
-    private boolean allowRefreshAccordingToMaxRefreshRate(){
-        if(mCachedLocation==null){
-            Log.d("LocalDatabase","Refresh based on maximum refresh rate couldn't be allowed : no Location available");
-            return false;
-        }else {
-            long timeDiffSinceLastRefresh = Math.abs(mLastRefreshDate - Calendar.getInstance().getTimeInMillis());
-            return timeDiffSinceLastRefresh > TIME_INTERVAL_FOR_MAXIMUM_REFRESH_RATE_FIREBASE;
-        }
-    }
-
 
 
 // LISTENER FUNCTIONS
@@ -342,16 +760,49 @@ public class LocalDatabase implements LocationTrackerListener{
             synchronized (this) {
                 mCachedLocation = newLocation;
             }
+            mViewableMediasCache = null;
             Log.d("LocalDatabase", "location updated, forcing single refresh");
+            updateAutoRefreshQueries(newLocation);
             forceSingleRefresh();
         }// otherwise, it's not worth it to refresh the database
     }
 
+    /** the reports of the user are only known once he is retrieved from the database : the pictures he reported,
+     *  fetched in the meantime, are removed. The pictures of the user are followed wherever they are */
+    @Override
+    public void userConnected() {
+        String userID = currentUserId();
+        boolean removedReportedPhotos = false;
+        for(String pictureId : currentUserReports()){
+            PhotoObject photo = mediaDataMap.get(pictureId);
+            if(photo != null && !photo.getAuthorId().equals(userID)){
+                removePhotoObject(pictureId);
+                removedReportedPhotos = true;
+            }
+        }
+        Location mLocationTempCopy = copyCachedLocation();
+        if(mLocationTempCopy != null){
+            updateAutoRefreshQueries(mLocationTempCopy);
+        }
+        if(removedReportedPhotos){
+            notifyListeners();
+        }
+    }
+
+    @Override
+    public void userDisconnected() {
+        Location mLocationTempCopy = copyCachedLocation();
+        if(mLocationTempCopy != null){
+            updateAutoRefreshQueries(mLocationTempCopy);
+        }
+    }
+
     @Override
     public void locationTimedOut(Location old){
         Log.d("LocalDatabase","listener notified that location timed out");
         synchronized (this) {
             mCachedLocation = null;
         }
+        mViewableMediasCache = null;
     }
 }
\ No newline at end of file
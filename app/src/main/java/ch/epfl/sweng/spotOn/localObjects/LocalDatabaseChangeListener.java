@@ -0,0 +1,12 @@
+package ch.epfl.sweng.spotOn.localObjects;
+
+import java.util.Set;
+
+/**
+ * LocalDatabaseListener which also wants to know exactly which photos were affected by an incremental update.
+ * Full refreshes (location change, clear...) are still signaled through databaseUpdated()
+ */
+
+public interface LocalDatabaseChangeListener extends LocalDatabaseListener {
+    void databaseChanged(Set<String> addedIds, Set<String> changedIds, Set<String> removedIds);
+}
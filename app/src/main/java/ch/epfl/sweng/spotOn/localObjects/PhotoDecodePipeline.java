@@ -0,0 +1,167 @@
+package ch.epfl.sweng.spotOn.localObjects;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+import ch.epfl.sweng.spotOn.media.PhotoObjectStoredInDatabase;
+
+/**
+ * Converts the photo snapshots received from firebase into PhotoObjects on a small pool of background threads,
+ * since decoding the thumbnails on the main thread freezes the UI during large refreshes.
+ * The snapshots of a batch are split in chunks decoded in parallel, and the whole batch is handed to its listener
+ * at once, on the main thread, when all the chunks are done. Batches are never cancelled : the caller rather waits
+ * for a batch before submitting a newer one, so that the decoding always makes progress.
+ * Meant to be used from the main thread only.
+ */
+public class PhotoDecodePipeline {
+
+    private final static int NB_DECODE_THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+    private final static int CHUNK_SIZE = 16;   // photos decoded by a single task
+
+    private final ExecutorService mDecodeExecutor;
+    private final Handler mMainHandler;
+
+    /** tells which photos of a batch should be kept, called from the decoding threads */
+    public interface PhotoFilter {
+        boolean accept(PhotoObjectStoredInDatabase storedPhoto);
+    }
+
+    /** receives the result of a whole batch on the main thread */
+    public interface BatchListener {
+        void onBatchDecoded(List<DecodedPhoto> decodedPhotos);
+    }
+
+    /** a photo accepted by the filter, with its PhotoObject unless the caller already had it decoded */
+    public static class DecodedPhoto {
+        public final PhotoObjectStoredInDatabase storedPhoto;
+        public final PhotoObject photo;   // null if the picture was in the alreadyDecodedIds of the batch
+
+        DecodedPhoto(PhotoObjectStoredInDatabase storedPhoto, PhotoObject photo) {
+            this.storedPhoto = storedPhoto;
+            this.photo = photo;
+        }
+    }
+
+    public PhotoDecodePipeline() {
+        mDecodeExecutor = Executors.newFixedThreadPool(NB_DECODE_THREADS, new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "PhotoDecode-" + mThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Decodes a batch of photo snapshots in the background
+     * @param photoSnapshots snapshots of single photos (not of a whole query)
+     * @param alreadyDecodedIds pictures whose thumbnail doesn't need to be decoded, given without PhotoObject.
+     *                          Read from the decoding threads, so it must not be modified afterwards
+     * @param filter decides which photos are kept in the result
+     * @param listener called on the main thread with the accepted photos, in the order of the snapshots
+     */
+    public void submit(List<DataSnapshot> photoSnapshots, Set<String> alreadyDecodedIds,
+                       PhotoFilter filter, BatchListener listener) {
+        int nbChunks = (photoSnapshots.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Batch batch = new Batch(nbChunks, alreadyDecodedIds, filter, listener);
+        if (nbChunks == 0) {
+            batch.publish();
+            return;
+        }
+        for (int chunk = 0; chunk < nbChunks; chunk++) {
+            List<DataSnapshot> chunkSnapshots = photoSnapshots.subList(chunk * CHUNK_SIZE,
+                    Math.min(photoSnapshots.size(), (chunk + 1) * CHUNK_SIZE));
+            mDecodeExecutor.execute(batch.decodeTask(chunk, new ArrayList<>(chunkSnapshots)));
+        }
+    }
+
+
+// PRIVATE HELPERS
+
+    private class Batch {
+        private final Set<String> mAlreadyDecodedIds;
+        private final PhotoFilter mFilter;
+        private final BatchListener mListener;
+        private final List<List<DecodedPhoto>> mChunkResults;
+        private final AtomicInteger mNbPendingChunks;
+
+        Batch(int nbChunks, Set<String> alreadyDecodedIds, PhotoFilter filter, BatchListener listener) {
+            mAlreadyDecodedIds = alreadyDecodedIds;
+            mFilter = filter;
+            mListener = listener;
+            mChunkResults = new ArrayList<>(nbChunks);
+            for (int i = 0; i < nbChunks; i++) {
+                mChunkResults.add(null);
+            }
+            mNbPendingChunks = new AtomicInteger(nbChunks);
+        }
+
+        Runnable decodeTask(final int chunk, final List<DataSnapshot> snapshots) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    List<DecodedPhoto> decoded = new ArrayList<>(snapshots.size());
+                    for (DataSnapshot photoSnapshot : snapshots) {
+                        try {
+                            PhotoObjectStoredInDatabase storedPhoto = photoSnapshot.getValue(PhotoObjectStoredInDatabase.class);
+                            if (mFilter.accept(storedPhoto)) {
+                                PhotoObject photo = null;
+                                if (!mAlreadyDecodedIds.contains(storedPhoto.getPictureId())) {
+                                    photo = storedPhoto.convertToPhotoObject();
+                                }
+                                decoded.add(new DecodedPhoto(storedPhoto, photo));
+                            }
+                        } catch (RuntimeException e) {
+                            // a single malformed photo shouldn't prevent the others from being displayed
+                            Log.w("PhotoDecodePipeline", "could not decode photo " + photoSnapshot.getKey(), e);
+                        }
+                    }
+                    synchronized (mChunkResults) {
+                        mChunkResults.set(chunk, decoded);
+                    }
+                    if (mNbPendingChunks.decrementAndGet() == 0) {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                publish();
+                            }
+                        });
+                    }
+                }
+            };
+        }
+
+        void publish() {
+            List<DecodedPhoto> result = new ArrayList<>();
+            synchronized (mChunkResults) {
+                for (List<DecodedPhoto> chunkResult : mChunkResults) {
+                    result.addAll(chunkResult);
+                }
+            }
+            mListener.onBatchDecoded(result);
+        }
+    }
+}
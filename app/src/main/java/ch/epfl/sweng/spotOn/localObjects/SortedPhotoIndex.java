@@ -0,0 +1,169 @@
+package ch.epfl.sweng.spotOn.localObjects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picture ids kept sorted by a numeric key (smallest first, ties broken by id), updated one id at a time instead of
+ * sorting everything again : an insertion, removal or key change is a binary search and an array shift.
+ * The position of an id is cached, the positions after the first change being recomputed only when asked for.
+ * Not thread-safe, like the rest of the LocalDatabase.
+ */
+public class SortedPhotoIndex {
+
+    public final static int NOT_FOUND = -1;
+
+    private final List<Entry> mOrder;
+    private final Map<String, Entry> mEntries;
+    // the positions stored in the entries are valid for the entries before this position
+    private int mValidPositions;
+
+
+    public SortedPhotoIndex() {
+        mOrder = new ArrayList<>();
+        mEntries = new HashMap<>();
+        mValidPositions = 0;
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * Adds the id, or moves it if its key changed
+     * @return true if the order changed
+     */
+    public boolean put(String id, long key) {
+        Entry entry = mEntries.get(id);
+        if (entry != null) {
+            if (entry.key == key) {
+                return false;
+            }
+            removeFromOrder(entry);
+        }
+        Entry newEntry = new Entry(id, key);
+        int position = insertionPoint(newEntry);
+        mOrder.add(position, newEntry);
+        mEntries.put(id, newEntry);
+        mValidPositions = Math.min(mValidPositions, position);
+        return true;
+    }
+
+    /**
+     * @return true if the id was in the index
+     */
+    public boolean remove(String id) {
+        Entry entry = mEntries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        removeFromOrder(entry);
+        return true;
+    }
+
+    public boolean contains(String id) {
+        return mEntries.containsKey(id);
+    }
+
+    /** @return the position of the id in the order, or NOT_FOUND */
+    public int positionOf(String id) {
+        Entry entry = mEntries.get(id);
+        if (entry == null) {
+            return NOT_FOUND;
+        }
+        if (entry.position >= mValidPositions) {
+            for (int i = mValidPositions; i < mOrder.size(); i++) {
+                mOrder.get(i).position = i;
+            }
+            mValidPositions = mOrder.size();
+        }
+        return entry.position;
+    }
+
+    public String idAt(int position) {
+        return mOrder.get(position).id;
+    }
+
+    /** @return a copy of the ids, in order */
+    public List<String> getIds() {
+        List<String> ids = new ArrayList<>(mOrder.size());
+        for (Entry entry : mOrder) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    /**
+     * @param ids the ids the index should hold, e.g. the pictures viewable after the user moved
+     * @return the ids of the index that aren't in the given ones, and the given ids that aren't in the index
+     */
+    public Set<String> differenceWith(Set<String> ids) {
+        Set<String> difference = new HashSet<>();
+        for (String id : mEntries.keySet()) {
+            if (!ids.contains(id)) {
+                difference.add(id);
+            }
+        }
+        for (String id : ids) {
+            if (!mEntries.containsKey(id)) {
+                difference.add(id);
+            }
+        }
+        return difference;
+    }
+
+    public int size() {
+        return mOrder.size();
+    }
+
+    public void clear() {
+        mOrder.clear();
+        mEntries.clear();
+        mValidPositions = 0;
+    }
+
+
+//PRIVATE HELPERS
+    private void removeFromOrder(Entry entry) {
+        int position = insertionPoint(entry);
+        mOrder.remove(position);
+        mValidPositions = Math.min(mValidPositions, position);
+    }
+
+    /** @return the position of the entry if it is in the order, otherwise the position where it should be inserted */
+    private int insertionPoint(Entry entry) {
+        int low = 0;
+        int high = mOrder.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mOrder.get(middle).compareTo(entry) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final String id;
+        final long key;
+        int position;
+
+        Entry(String id, long key) {
+            this.id = id;
+            this.key = key;
+            this.position = Integer.MAX_VALUE;  // unknown until the positions are recomputed
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (key != other.key) {
+                return key < other.key ? -1 : 1;
+            }
+            return id.compareTo(other.id);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ch.epfl.sweng.spotOn.localObjects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.epfl.sweng.spotOn.localisation.LocalizationUtils;
+
+/**
+ * Uniform grid over latitude/longitude used by the LocalDatabase to answer box queries (e.g. the pins in the visible
+ * region of the map) by only looking at the cells overlapping the box, instead of checking every photo.
+ * Points are identified by their pictureId. Not thread-safe, like the rest of the LocalDatabase.
+ */
+public class SpatialGridIndex {
+
+    private final static double METERS_PER_DEGREE_OF_LATITUDE = Math.PI * LocalizationUtils.EARTH_RADIUS / 180;
+
+    private final double mCellSizeInDegrees;
+    private final Map<Long, List<Entry>> mCells;
+    private final Map<String, Entry> mEntries;
+
+    /**
+     * @param cellSizeInMeters the height of a cell, which should be in the order of magnitude of the queried boxes
+     */
+    public SpatialGridIndex(double cellSizeInMeters) {
+        if (cellSizeInMeters <= 0) {
+            throw new IllegalArgumentException("cell size should be positive, was " + cellSizeInMeters);
+        }
+        mCellSizeInDegrees = cellSizeInMeters / METERS_PER_DEGREE_OF_LATITUDE;
+        mCells = new HashMap<>();
+        mEntries = new HashMap<>();
+    }
+
+    /** adds the point, or moves it if the id is already indexed */
+    public void put(String id, double latitude, double longitude) {
+        remove(id);
+        Entry entry = new Entry(id, latitude, longitude, cellKey(cellIndex(latitude), cellIndex(longitude)));
+        List<Entry> cell = mCells.get(entry.cellKey);
+        if (cell == null) {
+            cell = new ArrayList<>();
+            mCells.put(entry.cellKey, cell);
+        }
+        cell.add(entry);
+        mEntries.put(id, entry);
+    }
+
+    public void remove(String id) {
+        Entry entry = mEntries.remove(id);
+        if (entry != null) {
+            List<Entry> cell = mCells.get(entry.cellKey);
+            cell.remove(entry);
+            if (cell.isEmpty()) {
+                mCells.remove(entry.cellKey);
+            }
+        }
+    }
+
+    public boolean contains(String id) {
+        return mEntries.containsKey(id);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public void clear() {
+        mCells.clear();
+        mEntries.clear();
+    }
+
+    /**
+     * @return the ids of all the points inside the box, borders included. The box can cross the antimeridian (west > east)
+     */
+    public List<String> idsInBox(double south, double west, double north, double east) {
+        if (west > east) {
+            List<String> result = idsInBox(south, west, north, 180);
+            result.addAll(idsInBox(south, -180, north, east));
+            return result;
+        }
+        List<String> result = new ArrayList<>();
+        long minLatitudeCell = cellIndex(south);
+        long maxLatitudeCell = cellIndex(north);
+        long minLongitudeCell = cellIndex(west);
+        long maxLongitudeCell = cellIndex(east);
+        long coveredCells = (maxLatitudeCell - minLatitudeCell + 1) * (maxLongitudeCell - minLongitudeCell + 1);
+        if (coveredCells > mCells.size()) {
+            for (List<Entry> cell : mCells.values()) {
+                addEntriesInBox(cell, south, west, north, east, result);
+            }
+        } else {
+            for (long latCell = minLatitudeCell; latCell <= maxLatitudeCell; latCell++) {
+                for (long lngCell = minLongitudeCell; lngCell <= maxLongitudeCell; lngCell++) {
+                    List<Entry> cell = mCells.get(cellKey(latCell, lngCell));
+                    if (cell != null) {
+                        addEntriesInBox(cell, south, west, north, east, result);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+// PRIVATE HELPERS
+
+    private static void addEntriesInBox(List<Entry> cell, double south, double west, double north, double east,
+                                        List<String> result) {
+        for (Entry e : cell) {
+            if (e.latitude >= south && e.latitude <= north && e.longitude >= west && e.longitude <= east) {
+                result.add(e.id);
+            }
+        }
+    }
+
+    private long cellIndex(double degrees) {
+        return (long) Math.floor(degrees / mCellSizeInDegrees);
+    }
+
+    private static long cellKey(long latitudeCell, long longitudeCell) {
+        return (latitudeCell << 32) | (longitudeCell & 0xffffffffL);
+    }
+
+    private static class Entry {
+        final String id;
+        final double latitude;
+        final double longitude;
+        final long cellKey;
+
+        Entry(String id, double latitude, double longitude, long cellKey) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.cellKey = cellKey;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ch.epfl.sweng.spotOn.localisation;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Encodes positions as geohashes (base 32 strings where every character refines the cell of the previous ones),
+ * so that all the photos of an area share a common prefix and can be fetched with a range query on the database.
+ */
+public class Geohash {
+
+    public final static int STORED_PRECISION = 9;  // characters stored with each photo, ~5m x 5m cells
+    public final static int MAX_COVERING_CELLS = 9; // maximum number of prefixes (queries) used to cover a circle
+
+    private final static String BASE_32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private final static double METERS_PER_DEGREE_OF_LATITUDE = Math.PI * LocalizationUtils.EARTH_RADIUS / 180;
+
+    /**
+     * @param precision the number of characters of the geohash
+     * @return the geohash of the cell containing the position
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        if (precision < 1) {
+            throw new IllegalArgumentException("geohash precision should be at least 1, was " + precision);
+        }
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        StringBuilder geohash = new StringBuilder(precision);
+        boolean evenBit = true;   // bits alternate between longitude (even) and latitude (odd)
+        int bit = 0;
+        int character = 0;
+        while (geohash.length() < precision) {
+            if (evenBit) {
+                double middle = (minLng + maxLng) / 2;
+                if (longitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLng = middle;
+                } else {
+                    character = character << 1;
+                    maxLng = middle;
+                }
+            } else {
+                double middle = (minLat + maxLat) / 2;
+                if (latitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLat = middle;
+                } else {
+                    character = character << 1;
+                    maxLat = middle;
+                }
+            }
+            evenBit = !evenBit;
+            bit++;
+            if (bit == 5) {
+                geohash.append(BASE_32.charAt(character));
+                bit = 0;
+                character = 0;
+            }
+        }
+        return geohash.toString();
+    }
+
+    /**
+     * Computes a small set of geohash prefixes whose cells together cover the whole circle.
+     * The longest prefixes giving at most MAX_COVERING_CELLS cells are chosen, to download as little as possible.
+     * A circle crossing the antimeridian is covered on both sides of it
+     * @param radius in meters
+     */
+    public static Set<String> coveringPrefixes(double latitude, double longitude, double radius) {
+        double latitudeSpan = radius / METERS_PER_DEGREE_OF_LATITUDE;
+        double cosLatitude = Math.max(0.01, Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + latitudeSpan))));
+        double longitudeSpan = Math.min(180, latitudeSpan / cosLatitude);
+        double minLat = Math.max(-90, latitude - latitudeSpan);
+        double maxLat = Math.min(90, latitude + latitudeSpan);
+        double[][] longitudeRanges = longitudeRanges(longitude - longitudeSpan, longitude + longitudeSpan);
+
+        int precision = 1;
+        while (precision < STORED_PRECISION &&
+                nbCoveringCells(minLat, maxLat, longitudeRanges, precision + 1) <= MAX_COVERING_CELLS) {
+            precision++;
+        }
+
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+        Set<String> prefixes = new TreeSet<>();
+        for (double[] range : longitudeRanges) {
+            for (double lat = minLat; lat < maxLat + cellHeight; lat += cellHeight) {
+                for (double lng = range[0]; lng < range[1] + cellWidth; lng += cellWidth) {
+                    prefixes.add(encode(Math.min(lat, maxLat), Math.min(lng, range[1]), precision));
+                }
+            }
+        }
+        return prefixes;
+    }
+
+    /** @return the upper bound of a lexicographic range query returning all the keys starting with the prefix */
+    public static String endOfPrefixRange(String prefix) {
+        return prefix + "\uf8ff";
+    }
+
+
+// PRIVATE HELPERS
+
+    /** @return the ranges of longitudes, within [-180, 180], covering [minLng, maxLng] once wrapped around the antimeridian */
+    private static double[][] longitudeRanges(double minLng, double maxLng) {
+        if (maxLng - minLng >= 360) {
+            return new double[][]{{-180, 180}};
+        } else if (minLng < -180) {
+            return new double[][]{{-180, maxLng}, {minLng + 360, 180}};
+        } else if (maxLng > 180) {
+            return new double[][]{{minLng, 180}, {-180, maxLng - 360}};
+        }
+        return new double[][]{{minLng, maxLng}};
+    }
+
+    private static long nbCoveringCells(double minLat, double maxLat, double[][] longitudeRanges, int precision) {
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+        long nbRows = (long) Math.floor((maxLat + 90) / cellHeight) - (long) Math.floor((minLat + 90) / cellHeight) + 1;
+        long nbColumns = 0;
+        for (double[] range : longitudeRanges) {
+            nbColumns += (long) Math.floor((range[1] + 180) / cellWidth) - (long) Math.floor((range[0] + 180) / cellWidth) + 1;
+        }
+        return nbRows * nbColumns;
+    }
+
+    private static double cellHeight(int precision) {
+        int latitudeBits = (5 * precision) / 2;
+        return 180 / Math.pow(2, latitudeBits);
+    }
+
+    private static double cellWidth(int precision) {
+        int longitudeBits = (5 * precision + 1) / 2;
+        return 360 / Math.pow(2, longitudeBits);
+    }
+
+    private Geohash() {
+    }
+}
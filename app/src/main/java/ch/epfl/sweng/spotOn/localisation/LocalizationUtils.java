@@ -9,6 +9,20 @@ import android.location.Location;
 
 public class LocalizationUtils {
 
+    public static final double EARTH_RADIUS = 6371009; // in meters, same as the maps utils library
+
+    /** Computes the great-circle distance between two points (haversine formula), without allocating any Location
+     * @return the distance in meters
+     */
+    static public double distanceBetween(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double sinHalfDeltaLat = Math.sin((lat2 - lat1) / 2);
+        double sinHalfDeltaLng = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double h = sinHalfDeltaLat * sinHalfDeltaLat + Math.cos(lat1) * Math.cos(lat2) * sinHalfDeltaLng * sinHalfDeltaLng;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
     // decides if newLocation is better than currentBestLocation in term of recentness, and accuracy
     static public boolean isBetterLocation(Location newLocation, Location currentBestLocation) {
         final int THRESHOLD_ONE_MINUTE = 60*1000;
@@ -0,0 +1,121 @@
+package ch.epfl.sweng.spotOn.media;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Decoded full size images of the downloaded pictures, shared by all the PhotoObjects of a picture.
+ * The total size of the bitmaps is bounded by a part of the memory the device gives to the app, the least recently
+ * used ones being dropped : they are then loaded again from the disk cache or the file server by the
+ * FullSizeImageLoader when they are displayed again.
+ * Registered as ComponentCallbacks2 to shrink when the system is low on memory, and to empty itself when the app
+ * isn't visible anymore, since the full size images are only kept to be displayed.
+ */
+public class FullSizeImageCache implements ComponentCallbacks2 {
+
+    private final static int FRACTION_OF_MEMORY = 8;   // the cache can use 1/8 of the memory class of the device
+    private final static int BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private static FullSizeImageCache mSingleInstance = null;
+
+    private final LruCache<String, Bitmap> mImages;
+    private boolean mRegisteredForMemoryCallbacks;
+
+
+    /**
+     * Sizes the cache from the memory class of the device, if it isn't created yet, and lets the system tell the
+     * cache when memory is low. Only registers once even if called several times
+     */
+    public static synchronized void initialize(Context c){
+        if(mSingleInstance == null){
+            ActivityManager activityManager = (ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE);
+            long memoryClass = (long) activityManager.getMemoryClass() * BYTES_IN_MEGABYTE;
+            mSingleInstance = new FullSizeImageCache((int) (memoryClass / FRACTION_OF_MEMORY));
+        }
+        if(!mSingleInstance.mRegisteredForMemoryCallbacks){
+            c.getApplicationContext().registerComponentCallbacks(mSingleInstance);
+            mSingleInstance.mRegisteredForMemoryCallbacks = true;
+        }else{
+            Log.d("FullSizeImageCache","tried to register for memory callbacks, but already registered");
+        }
+    }
+
+    /** @return the cache, sized from the maximum heap if it wasn't initialized (e.g. in tests) */
+    public static synchronized FullSizeImageCache getInstance(){
+        if(mSingleInstance == null){
+            mSingleInstance = new FullSizeImageCache((int) (Runtime.getRuntime().maxMemory() / FRACTION_OF_MEMORY));
+        }
+        return mSingleInstance;
+    }
+
+    private FullSizeImageCache(int maxSizeInBytes){
+        mImages = new LruCache<String, Bitmap>(maxSizeInBytes) {
+            @Override
+            protected int sizeOf(String pictureId, Bitmap image) {
+                return image.getByteCount();
+            }
+        };
+        mRegisteredForMemoryCallbacks = false;
+    }
+
+
+//PUBLIC METHODS
+    /** @return the full size image of the picture, or null if it isn't cached */
+    public Bitmap get(String pictureId){
+        return mImages.get(pictureId);
+    }
+
+    /**
+     * @return false if the image is too big to ever fit in the cache, in which case it isn't cached
+     */
+    public boolean put(String pictureId, Bitmap image){
+        if(image.getByteCount() > mImages.maxSize()){
+            Log.d("FullSizeImageCache", "the full size image of "+pictureId+" is bigger than the cache");
+            return false;
+        }
+        mImages.put(pictureId, image);
+        return true;
+    }
+
+    public void remove(String pictureId){
+        mImages.remove(pictureId);
+    }
+
+    public int sizeInBytes(){
+        return mImages.size();
+    }
+
+    public int maxSizeInBytes(){
+        return mImages.maxSize();
+    }
+
+    public void clear(){
+        mImages.evictAll();
+    }
+
+
+//MEMORY CALLBACKS
+    @Override
+    public void onTrimMemory(int level) {
+        if(level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL){
+            // nothing is displayed anymore, or the app is about to be slowed down : the images are still on disk
+            mImages.evictAll();
+        }else if(level == TRIM_MEMORY_RUNNING_LOW){
+            mImages.trimToSize(mImages.size() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mImages.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
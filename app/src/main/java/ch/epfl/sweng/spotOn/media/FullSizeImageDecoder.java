@@ -0,0 +1,145 @@
+package ch.epfl.sweng.spotOn.media;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Decodes the full size images at the size of the view displaying them instead of their full resolution : the size
+ * of the image is read first, then it is decoded with the biggest power of 2 sample size that keeps at least as many
+ * pixels as the view shows. The images are decoded in ARGB_8888, unless they would still be too big for the
+ * FullSizeImageCache to keep a few pages, in which case they are decoded in RGB_565 (the JPEGs have no alpha anyway).
+ * The bitmaps of the pages that are not displayed anymore can be given back, their memory being reused by the next
+ * images decoded instead of allocating new bitmaps.
+ * Thread-safe, meant to be used from a background thread.
+ */
+public class FullSizeImageDecoder {
+
+    private final static int MAX_REUSABLE_BITMAPS = 2;
+
+    private final long mMaxBytesPerImage;
+    private final LinkedList<Bitmap> mReusableBitmaps;
+    // the bitmaps decoded here, the only ones that can be reused : the others may be used elsewhere
+    private final Set<Bitmap> mDecodedBitmaps;
+
+
+    /**
+     * @param maxBytesPerImage the size above which the images are decoded in RGB_565
+     */
+    public FullSizeImageDecoder(long maxBytesPerImage){
+        mMaxBytesPerImage = maxBytesPerImage;
+        mReusableBitmaps = new LinkedList<>();
+        mDecodedBitmaps = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * @param compressedImage the image, as downloaded
+     * @param viewWidth the width of the view displaying the image, in pixels
+     * @param viewHeight the height of the view displaying the image, in pixels
+     * @return the image, sampled down to the size of the view, or null if it can't be decoded
+     */
+    public Bitmap decode(byte[] compressedImage, int viewWidth, int viewHeight){
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(compressedImage, 0, compressedImage.length, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0){
+            return null;
+        }
+
+        int sampleSize = ImageSampling.sampleSizeFor(options.outWidth, options.outHeight, viewWidth, viewHeight);
+        int width = ImageSampling.sampledSize(options.outWidth, sampleSize);
+        int height = ImageSampling.sampledSize(options.outHeight, sampleSize);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = (long) width * height * 4 <= mMaxBytesPerImage ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        options.inBitmap = takeReusableBitmap(width, height, options.inPreferredConfig, sampleSize);
+
+        Bitmap image;
+        try {
+            image = BitmapFactory.decodeByteArray(compressedImage, 0, compressedImage.length, options);
+        } catch (IllegalArgumentException e){
+            // the bitmap couldn't be reused after all (e.g. the sampled size was rounded differently)
+            Log.d("FullSizeImageDecoder", "could not reuse a bitmap : "+e.getMessage());
+            giveBack(options.inBitmap);
+            options.inBitmap = null;
+            image = BitmapFactory.decodeByteArray(compressedImage, 0, compressedImage.length, options);
+        }
+        if(image == null){
+            giveBack(options.inBitmap);
+            return null;
+        }
+        synchronized (this){
+            mDecodedBitmaps.add(image);
+        }
+        return image;
+    }
+
+    /**
+     * Lets the next images decoded reuse the memory of a bitmap that isn't displayed nor cached anymore.
+     * Does nothing if the bitmap wasn't decoded here
+     */
+    public void giveBack(Bitmap image){
+        if(image == null || !image.isMutable() || image.isRecycled()){
+            return;
+        }
+        synchronized (this){
+            if(!mDecodedBitmaps.contains(image) || mReusableBitmaps.contains(image)){
+                return;
+            }
+            mReusableBitmaps.addLast(image);
+            if(mReusableBitmaps.size() > MAX_REUSABLE_BITMAPS){
+                mReusableBitmaps.removeFirst();
+            }
+        }
+    }
+
+    /** forgets the bitmaps given back, so that their memory can be freed */
+    public synchronized void clearReusableBitmaps(){
+        mReusableBitmaps.clear();
+    }
+
+
+//PRIVATE HELPERS
+    private synchronized Bitmap takeReusableBitmap(int width, int height, Bitmap.Config config, int sampleSize){
+        Iterator<Bitmap> reusableBitmaps = mReusableBitmaps.iterator();
+        while(reusableBitmaps.hasNext()){
+            Bitmap candidate = reusableBitmaps.next();
+            if(canBeReusedFor(candidate, width, height, config, sampleSize)){
+                reusableBitmaps.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean canBeReusedFor(Bitmap candidate, int width, int height, Bitmap.Config config, int sampleSize){
+        if(candidate.isRecycled() || candidate.getConfig() != config){
+            return false;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+            return allocatedBytes(candidate) >= (long) width * height * bytesPerPixel(config);
+        }
+        // before KitKat, only a bitmap of exactly the same size could be reused, and without sampling
+        return sampleSize == 1 && candidate.getWidth() == width && candidate.getHeight() == height;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int allocatedBytes(Bitmap bitmap){
+        return bitmap.getAllocationByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config){
+        return config == Bitmap.Config.ARGB_8888 ? 4 : 2;
+    }
+}
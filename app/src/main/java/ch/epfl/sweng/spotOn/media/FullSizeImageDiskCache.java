@@ -0,0 +1,249 @@
+package ch.epfl.sweng.spotOn.media;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compressed full size images kept on disk, so that a picture seen before isn't downloaded again, even after the
+ * LocalDatabase was refreshed or the app restarted. There is one file per picture, named after its id and its expire
+ * date : the pictures that expired are deleted, and the total size is bounded, the least recently used pictures being
+ * deleted first (the order of use is kept in the last modified date of the files).
+ * The files are only read when the cache is first used, and every method does disk IO : not to be used from the main
+ * thread. Thread-safe.
+ */
+public class FullSizeImageDiskCache {
+
+    private final static char EXPIRE_DATE_SEPARATOR = '_';
+    private final static String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxSizeInBytes;
+    // the cached pictures, least recently used first
+    private final LinkedHashMap<String, Entry> mEntries;
+    private long mSizeInBytes;
+    private boolean mLoaded;
+
+
+    /**
+     * @param directory where the images are written, created if needed
+     * @param maxSizeInBytes the maximum total size of the files
+     */
+    public FullSizeImageDiskCache(File directory, long maxSizeInBytes){
+        mDirectory = directory;
+        mMaxSizeInBytes = maxSizeInBytes;
+        mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        mSizeInBytes = 0;
+        mLoaded = false;
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * @param pictureId the picture of the image
+     * @param now the current time in ms, to delete the expired images
+     * @return the compressed image, or null if it isn't cached (or expired, or can't be read)
+     */
+    public synchronized byte[] get(String pictureId, long now){
+        ensureLoaded();
+        evictExpired(now);
+        Entry entry = mEntries.get(pictureId);
+        if(entry == null){
+            return null;
+        }
+        try {
+            byte[] bytes = readFile(entry.file);
+            //noinspection ResultOfMethodCallIgnored : only the order of eviction is lost if it fails
+            entry.file.setLastModified(now);
+            return bytes;
+        } catch (IOException e){
+            remove(pictureId);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the image, replacing the previous one of the picture, then deletes the least recently used images if
+     * the cache is too big
+     * @param pictureId the picture of the image
+     * @param expireDate the time in ms when the picture expires, after which the image is deleted
+     * @param compressedImage the image, as downloaded
+     * @param now the current time in ms
+     */
+    public synchronized void put(String pictureId, long expireDate, byte[] compressedImage, long now){
+        ensureLoaded();
+        remove(pictureId);
+        if(expireDate <= now || compressedImage.length > mMaxSizeInBytes){
+            return;
+        }
+        File file = new File(mDirectory, fileName(pictureId, expireDate));
+        File temporaryFile = new File(mDirectory, file.getName() + TEMPORARY_FILE_SUFFIX);
+        try {
+            // written aside first, so that a half written image is never read
+            writeFile(temporaryFile, compressedImage);
+            if(!temporaryFile.renameTo(file)){
+                throw new IOException("could not rename "+temporaryFile);
+            }
+        } catch (IOException e){
+            delete(temporaryFile);
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(now);
+        mEntries.put(pictureId, new Entry(file, expireDate, compressedImage.length));
+        mSizeInBytes += compressedImage.length;
+        evictExpired(now);
+        trimToSize();
+    }
+
+    /** deletes the image of the picture, if it is cached */
+    public synchronized void remove(String pictureId){
+        ensureLoaded();
+        Entry entry = mEntries.remove(pictureId);
+        if(entry != null){
+            mSizeInBytes -= entry.size;
+            delete(entry.file);
+        }
+    }
+
+    /** deletes the images of the pictures whose expire date passed */
+    public synchronized void evictExpired(long now){
+        ensureLoaded();
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while(entries.hasNext()){
+            Entry entry = entries.next();
+            if(entry.expireDate <= now){
+                mSizeInBytes -= entry.size;
+                delete(entry.file);
+                entries.remove();
+            }
+        }
+    }
+
+    public synchronized boolean contains(String pictureId){
+        ensureLoaded();
+        return mEntries.containsKey(pictureId);
+    }
+
+    /** @return the total size of the cached images */
+    public synchronized long size(){
+        ensureLoaded();
+        return mSizeInBytes;
+    }
+
+
+//PRIVATE HELPERS
+    /** reads the images written before, e.g. by a previous run of the app, least recently used first */
+    private void ensureLoaded(){
+        if(mLoaded){
+            return;
+        }
+        mLoaded = true;
+        if(!mDirectory.isDirectory() && !mDirectory.mkdirs()){
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if(files == null){
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long l1 = f1.lastModified();
+                long l2 = f2.lastModified();
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+        List<File> unknownFiles = new ArrayList<>();
+        for(File file : files){
+            String name = file.getName();
+            int separator = name.lastIndexOf(EXPIRE_DATE_SEPARATOR);
+            if(separator <= 0 || name.endsWith(TEMPORARY_FILE_SUFFIX)){
+                unknownFiles.add(file);
+                continue;
+            }
+            try {
+                long expireDate = Long.parseLong(name.substring(separator + 1));
+                String pictureId = name.substring(0, separator);
+                Entry previous = mEntries.put(pictureId, new Entry(file, expireDate, file.length()));
+                if(previous != null){
+                    mSizeInBytes -= previous.size;
+                    unknownFiles.add(previous.file);
+                }
+                mSizeInBytes += file.length();
+            } catch (NumberFormatException e){
+                unknownFiles.add(file);
+            }
+        }
+        for(File file : unknownFiles){
+            delete(file);
+        }
+        trimToSize();
+    }
+
+    private void trimToSize(){
+        Iterator<Entry> leastRecentlyUsedFirst = mEntries.values().iterator();
+        while(mSizeInBytes > mMaxSizeInBytes && leastRecentlyUsedFirst.hasNext()){
+            Entry entry = leastRecentlyUsedFirst.next();
+            mSizeInBytes -= entry.size;
+            delete(entry.file);
+            leastRecentlyUsedFirst.remove();
+        }
+    }
+
+    private static String fileName(String pictureId, long expireDate){
+        return pictureId + EXPIRE_DATE_SEPARATOR + expireDate;
+    }
+
+    private static void delete(File file){
+        //noinspection ResultOfMethodCallIgnored : a file that can't be deleted is deleted the next time the app starts
+        file.delete();
+    }
+
+    private static byte[] readFile(File file) throws IOException{
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while(read < bytes.length){
+                int count = in.read(bytes, read, bytes.length - read);
+                if(count < 0){
+                    throw new IOException("unexpected end of "+file);
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException{
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class Entry {
+        final File file;
+        final long expireDate;
+        final long size;
+
+        Entry(File file, long expireDate, long size){
+            this.file = file;
+            this.expireDate = expireDate;
+            this.size = size;
+        }
+    }
+}
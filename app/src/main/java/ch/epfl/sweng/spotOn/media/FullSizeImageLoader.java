@@ -0,0 +1,217 @@
+package ch.epfl.sweng.spotOn.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads the full size images of the pictures, so that everything displaying a picture shares the same download and
+ * the same decoded bitmap : while a picture is being loaded, every caller gets the same task, and the bytes are
+ * decoded once. Once loaded, the bitmap is kept in the FullSizeImageCache and the callers get a task that is already
+ * complete, until the cache drops it.
+ * The images are first looked for in the disk cache, and only downloaded if they aren't there, the downloaded images
+ * being written to the disk cache. They are decoded in the background at the size of the view displaying them, see
+ * FullSizeImageDecoder, and the bitmaps of the pages not displayed anymore can be given back to be reused.
+ * Meant to be used from the main thread only, where the listeners of the tasks are called.
+ */
+public class FullSizeImageLoader {
+
+    private final static String DISK_CACHE_DIRECTORY = "fullSizeImages";
+    private final static long DISK_CACHE_SIZE = 32 * 1024 * 1024;
+    // the images decoded in ARGB_8888 are small enough for the FullSizeImageCache to keep this many of them
+    private final static int MIN_CACHED_IMAGES = 4;
+
+    private static FullSizeImageLoader mSingleInstance = null;
+
+    private final Map<String, Task<Bitmap>> mInFlightLoads;
+    private FullSizeImageDiskCache mDiskCache;
+    private final FullSizeImageDecoder mDecoder;
+    // reads, writes and decodes the images
+    private final ExecutorService mBackgroundExecutor;
+
+
+    public static synchronized FullSizeImageLoader getInstance(){
+        if(mSingleInstance == null){
+            mSingleInstance = new FullSizeImageLoader();
+        }
+        return mSingleInstance;
+    }
+
+    /** lets the loader keep the images in the cache directory of the app, only done once even if called several times */
+    public static synchronized void initializeDiskCache(Context c){
+        FullSizeImageLoader loader = getInstance();
+        if(loader.mDiskCache == null){
+            loader.mDiskCache = new FullSizeImageDiskCache(
+                    new File(c.getApplicationContext().getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE);
+        }else{
+            Log.d("FullSizeImageLoader","tried to initialize the disk cache, but already initialized");
+        }
+    }
+
+    private FullSizeImageLoader(){
+        mInFlightLoads = new HashMap<>();
+        mDiskCache = null;
+        mDecoder = new FullSizeImageDecoder(FullSizeImageCache.getInstance().maxSizeInBytes() / MIN_CACHED_IMAGES);
+        mBackgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "FullSizeImageLoader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * @param photo the picture to load
+     * @param viewWidth the width of the view displaying the image, in pixels
+     * @param viewHeight the height of the view displaying the image, in pixels
+     * @return the task giving the decoded full size image, shared with the other callers loading the same picture
+     * (which then get the image at the size asked by the first one). It fails if the image can't be downloaded
+     * (e.g. the link of the picture isn't a valid firebase link) or decoded
+     */
+    public Task<Bitmap> load(final PhotoObject photo, int viewWidth, int viewHeight){
+        if(photo.hasFullSizeImage()){
+            return Tasks.forResult(photo.getFullSizeImage());
+        }
+        final String pictureId = photo.getPictureId();
+        Task<Bitmap> inFlight = mInFlightLoads.get(pictureId);
+        if(inFlight != null){
+            // even if the PhotoObject replaced the loading one in the LocalDatabase, both share the FullSizeImageCache
+            return inFlight;
+        }
+
+        final TaskCompletionSource<Bitmap> load = new TaskCompletionSource<>();
+        mInFlightLoads.put(pictureId, load.getTask());
+        if(mDiskCache == null){
+            download(photo, load, viewWidth, viewHeight);
+        }else{
+            readFromDisk(photo, load, viewWidth, viewHeight);
+        }
+        return load.getTask();
+    }
+
+    /**
+     * Lets the next images decoded reuse the memory of an image that isn't displayed anymore, unless it is still
+     * in the FullSizeImageCache or kept by the picture (when it is too big for the cache and wasn't released)
+     * @param photo the picture of the image
+     * @param image the image that was displayed
+     */
+    public void reuseLater(PhotoObject photo, Bitmap image){
+        if(FullSizeImageCache.getInstance().get(photo.getPictureId()) != image && !photo.keepsFullSizeImage(image)){
+            mDecoder.giveBack(image);
+        }
+    }
+
+    /** forgets the images given back to be reused, so that their memory can be freed */
+    public void clearReusableImages(){
+        mDecoder.clearReusableBitmaps();
+    }
+
+
+//PRIVATE HELPERS
+    /** reads the image from the disk cache in the background, and downloads it if it isn't cached */
+    private void readFromDisk(final PhotoObject photo, final TaskCompletionSource<Bitmap> load,
+                              final int viewWidth, final int viewHeight){
+        final String pictureId = photo.getPictureId();
+        final FullSizeImageDiskCache diskCache = mDiskCache;
+        Tasks.call(mBackgroundExecutor, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                byte[] bytes = diskCache.get(pictureId, System.currentTimeMillis());
+                if(bytes == null){
+                    return null;
+                }
+                Bitmap image = mDecoder.decode(bytes, viewWidth, viewHeight);
+                if(image == null){
+                    diskCache.remove(pictureId);
+                }
+                return image;
+            }
+        }).addOnCompleteListener(new OnCompleteListener<Bitmap>() {
+            @Override
+            public void onComplete(@NonNull Task<Bitmap> diskRead) {
+                if(diskRead.isSuccessful() && diskRead.getResult() != null){
+                    complete(photo, load, diskRead.getResult());
+                }else{
+                    download(photo, load, viewWidth, viewHeight);
+                }
+            }
+        });
+    }
+
+    /** downloads the image, then writes it to the disk cache and decodes it in the background */
+    private void download(final PhotoObject photo, final TaskCompletionSource<Bitmap> load,
+                          final int viewWidth, final int viewHeight){
+        final String pictureId = photo.getPictureId();
+        final long expireDate = photo.getExpireDate().getTime();
+        final FullSizeImageDiskCache diskCache = mDiskCache;
+        Task<byte[]> download;
+        try {
+            download = photo.downloadFullsizeImage();
+        } catch (IllegalArgumentException e){
+            mInFlightLoads.remove(pictureId);
+            load.setException(e);
+            return;
+        }
+        download.addOnCompleteListener(new OnCompleteListener<byte[]>() {
+            @Override
+            public void onComplete(@NonNull final Task<byte[]> download) {
+                if(download.getException() != null){
+                    Log.e("FullSizeImageLoader", "could not download the full size image of "+pictureId);
+                    mInFlightLoads.remove(pictureId);
+                    load.setException(download.getException());
+                    return;
+                }
+                Tasks.call(mBackgroundExecutor, new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() throws Exception {
+                        if(diskCache != null){
+                            diskCache.put(pictureId, expireDate, download.getResult(), System.currentTimeMillis());
+                        }
+                        return mDecoder.decode(download.getResult(), viewWidth, viewHeight);
+                    }
+                }).addOnCompleteListener(new OnCompleteListener<Bitmap>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Bitmap> decoding) {
+                        if(decoding.isSuccessful() && decoding.getResult() != null){
+                            complete(photo, load, decoding.getResult());
+                        }else{
+                            mInFlightLoads.remove(pictureId);
+                            load.setException(new IllegalStateException("could not decode the full size image of "+pictureId));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void complete(PhotoObject photo, TaskCompletionSource<Bitmap> load, Bitmap image){
+        mInFlightLoads.remove(photo.getPictureId());
+        photo.cacheFullSizeImage(image);
+        load.setResult(image);
+    }
+}
@@ -0,0 +1,33 @@
+package ch.epfl.sweng.spotOn.media;
+
+/**
+ * Computes by how much the full size images are sampled down when they are decoded for a view, see
+ * FullSizeImageDecoder. Kept apart from the decoder since it doesn't depend on the android graphics.
+ */
+public class ImageSampling {
+
+    private ImageSampling(){
+    }
+
+    /**
+     * @return the biggest power of 2 by which the image can be sampled down while keeping at least as many pixels as
+     * it has once scaled to fit in the view
+     */
+    public static int sampleSizeFor(int imageWidth, int imageHeight, int viewWidth, int viewHeight){
+        if(viewWidth <= 0 || viewHeight <= 0){
+            return 1;
+        }
+        // the image fits in the view along the dimension where it is the biggest relatively to the view
+        double maxSampleSize = Math.max((double) imageWidth / viewWidth, (double) imageHeight / viewHeight);
+        int sampleSize = 1;
+        while(sampleSize * 2 <= maxSampleSize){
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /** @return the size of a dimension of the image once sampled down, the decoder rounds it up */
+    public static int sampledSize(int size, int sampleSize){
+        return (size + sampleSize - 1) / sampleSize;
+    }
+}
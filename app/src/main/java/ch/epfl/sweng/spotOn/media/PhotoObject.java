@@ -2,7 +2,6 @@ package ch.epfl.sweng.spotOn.media;
 
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.location.Location;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -15,24 +14,28 @@ import com.google.android.gms.tasks.Task;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
 
 
-import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
 
 import java.io.ByteArrayOutputStream;
 import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
 import ch.epfl.sweng.spotOn.utils.BitmapUtils;
 import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
 import ch.epfl.sweng.spotOn.singletonReferences.StorageRef;
+import ch.epfl.sweng.spotOn.user.KarmaService;
+import ch.epfl.sweng.spotOn.user.User;
+import ch.epfl.sweng.spotOn.user.UserManager;
 
 import static com.google.maps.android.SphericalUtil.computeDistanceBetween;
 
@@ -56,12 +59,14 @@ public class PhotoObject {
     private final int UPVOTE_KARMA_GIVEN = 10;
 
     private final int MAX_NB_REPORTS = 3;
+    private final static int MAX_VOTE_TRANSACTION_ATTEMPTS = 10;
+    public final static String VOTES_CHILD = "votes";    // child of the database entry holding the vote counts
+    private final static String REPORTS_CHILD = "reports";
     private final int REPORT_DECREASE_KARMA = -20;
 
-    private Bitmap mFullsizeImage;
+    private Bitmap mFullsizeImage;       // for the pictures taken on this device, the downloaded ones are in the FullSizeImageCache
     private String mFullsizeImageLink;   // needed for the "cache-like" behaviour of getFullsizeImage()
-    private boolean mHasFullsizeImage;   // false -> no Image, but has link; true -> has image, can't access link (don't need it => no getter)
-    private Bitmap mThumbnail;
+    private byte[] mThumbnailBytes;      // compressed, decoded when needed through the ThumbnailCache
     private String mPictureId;
     private String mAuthorID;
     private String mPhotoName;
@@ -75,9 +80,14 @@ public class PhotoObject {
     private int mNbUpvotes;
     private int mNbDownvotes;
     private int mNbReports;
-    private ArrayList<String> mDownvotersList;
-    private ArrayList<String> mUpvotersList;
-    private ArrayList<String> mReportersList;
+    // the picture doesn't carry its voters and reporters : the current user keeps an index of his votes and reports
+
+    // contention on the votes of this picture, measured on the vote transactions of this device
+    private int mNbCommittedVotes;
+    private int mNbAbortedVotes;
+    private int mNbVoteRetries;
+    private long mTotalVoteCommitLatency;   // in ms
+    private long mMaxVoteCommitLatency;
 
 
     /** This constructor is used when the user takes a photo with his device, and create the object from locally obtained information
@@ -92,10 +102,11 @@ public class PhotoObject {
     public PhotoObject(Bitmap fullSizePic, String authorID, String photoName,
                        Timestamp createdDate, double latitude, double longitude){
         mFullsizeImage = fullSizePic.copy(fullSizePic.getConfig(), true);
-        mHasFullsizeImage=true;
         mFullsizeImageLink = null;  // link not available yet
-        mThumbnail = BitmapUtils.createThumbnail(mFullsizeImage, THUMBNAIL_SIZE);
+        Bitmap thumbnail = BitmapUtils.createThumbnail(mFullsizeImage, THUMBNAIL_SIZE);
+        mThumbnailBytes = BitmapUtils.compressBitmap(thumbnail);
         mPictureId = DatabaseRef.getMediaDirectory().push().getKey();   //available even offline
+        ThumbnailCache.getInstance().put(mPictureId, mThumbnailBytes, thumbnail);
         mPhotoName = photoName;
         mCreatedDate = createdDate;
         mLatitude = latitude;
@@ -106,16 +117,13 @@ public class PhotoObject {
         mNbUpvotes = 1;     // initialize at 1 to avoid any possible division by 0 later
         mNbDownvotes = 1;
         mNbReports = 0;
-        mDownvotersList = new ArrayList<>();
-        mUpvotersList = new ArrayList<>();
-        mReportersList = new ArrayList<>();
         this.computeRadius();
         this.computeExpireDate();
     }
 
     /** This constructor is called to convert an object retrieved from the database into a PhotoObject.
      * @param fullSizeImageLink the internet url of the picture
-     * @param thumbnail the bitmap of the picture, reduced in size
+     * @param thumbnailBytes the compressed bitmap of the picture, reduced in size
      * @param pictureId the unique reference ID of the picture in the firebase DB
      * @param authorID the author unique ID
      * @param photoName the name of the picture
@@ -125,18 +133,13 @@ public class PhotoObject {
      * @param nbUpVotes the amount of upVotes on this picture
      * @param nbDownVotes the amount of downVotes on this picture
      * @param nbReports the amount users whom reported this picture
-     * @param upVoters the list of users whom upVoted this picture
-     * @param downVoters the list of users whom downVoted this picture
-     * @param reporters the list of users whom reported this picture
      */
-    public PhotoObject(String fullSizeImageLink, Bitmap thumbnail, String pictureId, String authorID,
+    public PhotoObject(String fullSizeImageLink, byte[] thumbnailBytes, String pictureId, String authorID,
                        String photoName, long createdDate, double latitude, double longitude,
-                       int nbUpVotes, int nbDownVotes, int nbReports, List<String> upVoters,
-                       List<String> downVoters, List<String> reporters){
+                       int nbUpVotes, int nbDownVotes, int nbReports){
         mFullsizeImage = null;
-        mHasFullsizeImage=false;
         mFullsizeImageLink=fullSizeImageLink;
-        mThumbnail = thumbnail;
+        mThumbnailBytes = thumbnailBytes;
         mPictureId = pictureId;
         mPhotoName = photoName;
         mCreatedDate = new Timestamp(createdDate);
@@ -148,9 +151,6 @@ public class PhotoObject {
         mNbUpvotes = nbUpVotes;
         mNbDownvotes = nbDownVotes;
         mNbReports = nbReports;
-        mUpvotersList = new ArrayList<>(upVoters);
-        mDownvotersList = new ArrayList<>(downVoters);
-        mReportersList = new ArrayList<>(reporters);
         this.computeRadius();
         this.computeExpireDate();
     }
@@ -193,71 +193,51 @@ public class PhotoObject {
      * @return the String message to be printed on the toast when upVoting or downVoting a picture
      */
     public String processVote(int vote, String votersId){
+        if(votesAndReportsAreLoading(votersId)){
+            // his previous vote isn't known yet, it would be counted twice
+            return User.LOGIN_NOT_RETRIEVED_FROM_DB_MESSAGE;
+        }
         String toastText;   // message that will be displayed as the action's result
         boolean voteIsValid=false;
-        int karmaAdded = 0;    // karma given to the photo's author
+        int previousVote = getVoteOf(votersId);
         if(mAuthorID.equals(votersId)){
             toastText="You can't vote for your own photo!";
-        }else if(mUpvotersList.contains(votersId) && vote==0) {   // cancel his upvote
+        }else if(previousVote==1 && vote==0) {   // cancel his upvote
             voteIsValid = true;
             toastText = "you removed your upvote !";
-        }else if(mDownvotersList.contains(votersId) && vote==0){ // cancel his downvote
+        }else if(previousVote==-1 && vote==0){ // cancel his downvote
             voteIsValid = true;
             toastText = "you removed your downvote !";
         }else{
             if(vote == 1) {
                 voteIsValid=true;
                 toastText = "upvoted !";
-                karmaAdded = UPVOTE_KARMA_GIVEN;
             }else if(vote == -1) {
                 voteIsValid=true;
                 toastText = "downvoted !";
-                karmaAdded = DOWNVOTE_KARMA_GIVEN;
             }else {
                 throw new IllegalArgumentException("votes should be either 1 (upvote), 0 (cancel vote) or -1 (downvote)");
             }
         }
 
-        if(voteIsValid) {
-            if(vote == 0) {
-                if (mUpvotersList.contains(votersId)){
-                    mNbUpvotes -= 1;
-                    karmaAdded -= UPVOTE_KARMA_GIVEN;
-                    mUpvotersList.remove(votersId);
-                }
-                else{
-                    mNbDownvotes -= 1;
-                    karmaAdded -= DOWNVOTE_KARMA_GIVEN;
-                    mDownvotersList.remove(votersId);
-                }
-            }
-            else if (vote == -1) {
-                if (mUpvotersList.contains(votersId)) { //need to remove user's previous upvote and get back the karma from that upvote
-                    mNbUpvotes -= 1;
-                    karmaAdded -= UPVOTE_KARMA_GIVEN;
-                    mUpvotersList.remove(votersId);
-                }
-                mNbDownvotes += 1;
-                mDownvotersList.add(votersId);
-
-            } else if (vote == 1) {
-                if (mDownvotersList.contains(votersId)) { //need to remove user's previous downvote and give back karma from that downvote
-                    mNbDownvotes -= 1;
-                    karmaAdded -= DOWNVOTE_KARMA_GIVEN;
-                    mDownvotersList.remove(votersId);
-                }
-                mNbUpvotes += 1;
-                mUpvotersList.add(votersId);
-            }
+        if(voteIsValid && vote != previousVote) {
+            VoteTransaction voteTransaction = new VoteTransaction(votersId, previousVote, vote, mNbUpvotes, mNbDownvotes);
+            mNbUpvotes += upvotesDelta(previousVote, vote);
+            mNbDownvotes += downvotesDelta(previousVote, vote);
+            recordVote(votersId, vote);
 
             computeRadius();
             computeExpireDate();
+            // the photo may now be viewable from elsewhere
+            if(LocalDatabase.instanceExists()) {
+                LocalDatabase.getInstance().updateRadius(this);
+            }
 
-            // push changes to Database if the object was uploaded
+            // push changes to Database if the object was uploaded : the local changes above are only a preview,
+            // the transaction applies the vote to the database content, which other voters may have changed since it was fetched
             if(mFullsizeImageLink!=null) {
                 DatabaseReference DBref = DatabaseRef.getMediaDirectory();
-                DBref.child(mPictureId).setValue(this.convertForStorageInDatabase());
-                giveAuthorHisKarma(karmaAdded);
+                DBref.child(mPictureId).child(VOTES_CHILD).runTransaction(voteTransaction);
             }
         }
 
@@ -270,28 +250,28 @@ public class PhotoObject {
      * @return the String message to be printed on the toast when reporting a picture
      */
     public String processReport(String reporterID){
+        if(votesAndReportsAreLoading(reporterID)){
+            return User.LOGIN_NOT_RETRIEVED_FROM_DB_MESSAGE;
+        }
         String resultProcess  = "";
         if(reporterID.equals(mAuthorID)){
             resultProcess = "You can't report your own picture! But you can delete it from your profile page";
         }
         else{
-            if(mReportersList.contains(reporterID)){
+            if(hasReported(reporterID)){
                 resultProcess = "You have already reported this picture.";
             }
             else {
                 resultProcess = "Thank you for reporting this picture.";
-                mReportersList.add(reporterID);
-                mNbReports = mReportersList.size();
+                mNbReports += 1;
+                User reporter = currentUser(reporterID);
+                if(reporter != null){
+                    reporter.addReport(mPictureId);
+                }
 
+                // the other reporters aren't known locally, the count is incremented on the database content
                 DatabaseReference DBref = DatabaseRef.getMediaDirectory();
-                DBref.child(mPictureId).child("reports").setValue(mNbReports);
-                DBref.child(mPictureId).child("reportersList").setValue(mReportersList);
-
-                if (mNbReports >= MAX_NB_REPORTS) {
-                    DatabaseRef.deletePhotoObjectFromDB(mPictureId);
-                    StorageRef.deletePictureFromStorage(mPictureId);
-                    giveAuthorHisKarma(REPORT_DECREASE_KARMA);
-                }
+                DBref.child(mPictureId).child(REPORTS_CHILD).runTransaction(new ReportTransaction());
             }
 
             LocalDatabase.getInstance().removePhotoObject(mPictureId);
@@ -301,11 +281,8 @@ public class PhotoObject {
     }
 
 
-    /** retrieves the fullsizeimage from the fileserver and caches it in the object.
-     *  Offers the caller to pass some listeners to trigger custom actions on download success or failure.
-     *  Booleans
-     */
-    public void retrieveFullsizeImage(boolean hasOnCompleteListener, OnCompleteListener completionListener) throws IllegalArgumentException{
+    /** starts downloading the compressed fullsizeimage, without decoding nor caching it (see FullSizeImageLoader) */
+    Task<byte[]> downloadFullsizeImage() throws IllegalArgumentException{
         // check for necessary conditions
         if(mFullsizeImageLink==null){
             throw new AssertionError("if there is no image stored, object should have a link to retrieve it");
@@ -320,20 +297,30 @@ public class PhotoObject {
             throw new IllegalArgumentException("Retrieving from improper Firebase Storage link "+mFullsizeImageLink);
         }
         final long TWO_MEGABYTE = 2 * 1024 * 1024;
-        Task<byte[]> retrieveFullsizeImageFromFileServer = gsReference.getBytes(TWO_MEGABYTE);
+        return gsReference.getBytes(TWO_MEGABYTE);
+    }
 
-        // add default listener to cache the obtained image
-        addRetrieveFullsizeImageDefaultListeners(retrieveFullsizeImageFromFileServer);
+    /** drops the cached fullsizeimage to free memory, if it can be retrieved again from the fileserver */
+    public void releaseFullSizeImage(){
+        if(mFullsizeImageLink != null){
+            mFullsizeImage = null;
+            FullSizeImageCache.getInstance().remove(mPictureId);
+        }
+    }
 
-        // add optionnal (user's) listener
-        if(hasOnCompleteListener){
-            if(completionListener==null){
-                throw new NullPointerException("this listener is specified not to be null !");
-            }
-            retrieveFullsizeImageFromFileServer.addOnCompleteListener(completionListener);
+    /** keeps the downloaded fullsizeimage in the FullSizeImageCache, shared with the other PhotoObjects of the picture */
+    void cacheFullSizeImage(Bitmap fullsizeImage){
+        if(!FullSizeImageCache.getInstance().put(mPictureId, fullsizeImage)){
+            // too big for the cache, kept by this object until it is released
+            mFullsizeImage = fullsizeImage;
         }
     }
 
+    /** @return true if the image is the fullsizeimage kept by this object, see cacheFullSizeImage() */
+    boolean keepsFullSizeImage(Bitmap image){
+        return mFullsizeImage != null && mFullsizeImage == image;
+    }
+
     public Location obtainLocation(){
         Location l = new Location("PhotoObject_Location_generator");
         l.setLatitude(mLatitude);
@@ -356,13 +343,14 @@ public class PhotoObject {
 //ALL THE GETTER FUNCTIONS
 
     public boolean hasFullSizeImage(){
-        return mHasFullsizeImage;
+        return mFullsizeImage != null || FullSizeImageCache.getInstance().get(mPictureId) != null;
     }
     public Bitmap getFullSizeImage(){
-        if(mHasFullsizeImage){
-            return mFullsizeImage;
+        Bitmap fullsizeImage = mFullsizeImage != null ? mFullsizeImage : FullSizeImageCache.getInstance().get(mPictureId);
+        if(fullsizeImage != null){
+            return fullsizeImage;
         }else{
-            throw new NoSuchElementException("PhotoObject doesn't have a fullsizeImage - you need to retrieve it with the retrieveFullSizeImage - hint : use asFullSizeImage to avoid this problem");
+            throw new NoSuchElementException("PhotoObject doesn't have a fullsizeImage - load it with the FullSizeImageLoader");
         }
     }
     public String getPhotoName(){
@@ -386,8 +374,13 @@ public class PhotoObject {
     public String getAuthorId(){
         return mAuthorID;
     }
+    /** @return the thumbnail shared by everything displaying this picture : it is immutable, and must not be recycled */
     public Bitmap getThumbnail(){
-        return mThumbnail.copy(mThumbnail.getConfig(), true);
+        return ThumbnailCache.getInstance().get(mPictureId, mThumbnailBytes);
+    }
+    /** @return the thumbnail if it is already decoded, null otherwise, see getThumbnail() */
+    public Bitmap getThumbnailIfDecoded(){
+        return ThumbnailCache.getInstance().peek(mPictureId, mThumbnailBytes);
     }
     public String getPictureId() {
         return mPictureId;
@@ -402,11 +395,23 @@ public class PhotoObject {
         return mStoredInServer;
     }
     public int getUpvotes(){return mNbUpvotes;}
+    public int getCommittedVotesCount(){return mNbCommittedVotes;}
+    public int getAbortedVotesCount(){return mNbAbortedVotes;}
+    /** @return the number of times the vote transactions on this picture had to be retried because of concurrent changes */
+    public int getVoteRetriesCount(){return mNbVoteRetries;}
+    /** @return in ms, the average time between a vote and its commit in the database (0 if none was committed) */
+    public long getAverageVoteCommitLatency(){
+        return mNbCommittedVotes == 0 ? 0 : mTotalVoteCommitLatency / mNbCommittedVotes;
+    }
+    public long getMaxVoteCommitLatency(){return mMaxVoteCommitLatency;}
     public int getDownvotes(){return mNbDownvotes;}
     public int getReports(){return mNbReports;}
-    public List<String> getUpvotersList(){ return Collections.unmodifiableList(mUpvotersList); }
-    public List<String> getDownvotersList(){ return Collections.unmodifiableList(mDownvotersList); }
-    public List<String> getReportersList(){ return Collections.unmodifiableList(mReportersList);}
+    public boolean hasUpvoted(String userId){ return getVoteOf(userId) == 1; }
+    public boolean hasDownvoted(String userId){ return getVoteOf(userId) == -1; }
+    public boolean hasReported(String userId){
+        User user = currentUser(userId);
+        return user != null && user.hasReported(mPictureId);
+    }
 
 
 //SETTER FUNCTIONS
@@ -424,14 +429,73 @@ public class PhotoObject {
         mRadius = MAX_VIEW_RADIUS;
     }
 
+    /** Applies the fields that can change once the picture is online (votes and reports) without touching
+     *  the rest of the object, so that the already decoded thumbnail is kept.
+     *  Only meant to be called by PhotoObjectStoredInDatabase.updatePhotoObject()
+     */
+    void updateVotesAndReports(int nbUpVotes, int nbDownVotes, int nbReports){
+        mNbUpvotes = nbUpVotes;
+        mNbDownvotes = nbDownVotes;
+        mNbReports = nbReports;
+        this.computeRadius();
+        this.computeExpireDate();
+    }
+
 
 // PRIVATE HELPERS USED IN THE CLASS ONLY
 
+    /** @return the current user if he is the given user, null otherwise */
+    private static User currentUser(String userId){
+        if(UserManager.instanceExists() && UserManager.getInstance().userIsLoggedIn()){
+            User user = UserManager.getInstance().getUser();
+            if(user.getUserId().equals(userId)){
+                return user;
+            }
+        }
+        return null;
+    }
+
+    /** @return true if the user is the current user, whose index of votes and reports is still being loaded */
+    private static boolean votesAndReportsAreLoading(String userId){
+        if(UserManager.instanceExists() && UserManager.getInstance().retrievingUserFromDatabase()){
+            return UserManager.getInstance().getUser().getUserId().equals(userId);
+        }
+        return false;
+    }
+
+    /** @return the vote of the user on this picture (1, -1 or 0), from his index of votes. Only the votes of the
+     *  current user are known, the others are 0 */
+    private int getVoteOf(String userId){
+        User user = currentUser(userId);
+        return user == null ? 0 : user.getVote(mPictureId);
+    }
+
+    /** records the vote in the index of the user, if he is the current user */
+    private void recordVote(String userId, int vote){
+        User user = currentUser(userId);
+        if(user != null){
+            user.setVote(mPictureId, vote);
+        }
+    }
+
+    private static int upvotesDelta(int previousVote, int vote){
+        return (vote == 1 ? 1 : 0) - (previousVote == 1 ? 1 : 0);
+    }
+
+    private static int downvotesDelta(int previousVote, int vote){
+        return (vote == -1 ? 1 : 0) - (previousVote == -1 ? 1 : 0);
+    }
+
+    /** @return the karma given to the author when a vote changes from previousVote to vote */
+    private int karmaDelta(int previousVote, int vote){
+        return upvotesDelta(previousVote, vote) * UPVOTE_KARMA_GIVEN + downvotesDelta(previousVote, vote) * DOWNVOTE_KARMA_GIVEN;
+    }
+
     /** Computes a popularity ratio, that belongs in ]-1,1[, -1 being the lest popular and 1 the most popular
     */
-    private double computePopularityRatio(){
-        if(mNbDownvotes+mNbUpvotes==0){
-            throw new AssertionError(" upvotes+downvoted=0 => the PhotoObject was not initialized correctly\n"+this.toString());
+    private static double computePopularityRatio(int nbUpvotes, int nbDownvotes){
+        if(nbDownvotes+nbUpvotes==0){
+            throw new AssertionError(" upvotes+downvoted=0 => the PhotoObject was not initialized correctly");
         }
         /* doing it this way gave rounding errors for (1,4)... weird ?
         double upvotesRatio = (double)mNbUpvotes / (double)(mNbDownvotes+mNbUpvotes);       // in ]0, 1[
@@ -441,7 +505,7 @@ public class PhotoObject {
         }
         double popularityRatio = upvotesRatio - downvotesRatio;             // in [-1, 1]
         */
-        return (double)(mNbUpvotes-mNbDownvotes) / (double)(mNbDownvotes+mNbUpvotes);
+        return (double)(nbUpvotes-nbDownvotes) / (double)(nbDownvotes+nbUpvotes);
     }
 
     /** Computes the radius of the image according to its score and automatically set the values
@@ -456,7 +520,14 @@ public class PhotoObject {
     }
 
     private Timestamp computeExpireDate(){
-        double popularityRatio = computePopularityRatio();
+        mExpireDate = new Timestamp(computeExpireDate(mCreatedDate.getTime(), mNbUpvotes, mNbDownvotes));
+        return mExpireDate;
+    }
+
+    /** Computes the expire date of a picture from its votes, without needing the PhotoObject (e.g. in a transaction)
+     */
+    private static long computeExpireDate(long createdDate, int nbUpvotes, int nbDownvotes){
+        double popularityRatio = computePopularityRatio(nbUpvotes, nbDownvotes);
         long computedLifetime = DEFAULT_LIFETIME;
         if(popularityRatio>0){
             computedLifetime = (int)Math.ceil(DEFAULT_LIFETIME + popularityRatio*(MAX_LIFETIME-DEFAULT_LIFETIME));      // scale between default and max if popular
@@ -465,36 +536,11 @@ public class PhotoObject {
             computedLifetime = (int)Math.ceil(MIN_LIFETIME + unpopularityRatio*(DEFAULT_LIFETIME-MIN_LIFETIME));        // scale between min and default if unpopular
         }
         if(computedLifetime<MIN_LIFETIME){
-            throw new AssertionError("can't be < MIN_LIFETIME : computed "+computedLifetime+"\n"+this.toString());
+            throw new AssertionError("can't be < MIN_LIFETIME : computed "+computedLifetime);
         }
-        mExpireDate = new Timestamp(mCreatedDate.getTime()+computedLifetime);
-        return mExpireDate;
-    }
-
-    /**
-     * Adds default listeners, which will :
-     *  - store the fullsizeImage in the object once it is retrieved
-     *  - handle failures
-     */
-    private void addRetrieveFullsizeImageDefaultListeners(Task fileServerTask){
-        fileServerTask.addOnSuccessListener(new OnSuccessListener<byte[]>() {
-            @Override
-            public void onSuccess(byte[] bytes) {
-                // Data for "images/PictureID.jpg" is returns, use this as needed
-                mFullsizeImage = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                mHasFullsizeImage = true;
-                Log.d("DownloadFromFileServer", "Downloaded full size image from FileServer");
-            }
-        }).addOnFailureListener(new OnFailureListener() {
-            @Override
-            public void onFailure(@NonNull Exception exception) {
-                // Handle any errors
-                Log.e("DownloadFromFileServer", "Exception raised by getFromFileServer()");
-            }
-        });
+        return createdDate+computedLifetime;
     }
 
-
     /** converts This into an object that we can store in the database, by converting the thumbnail into a String
      *  and leaving behind the fullsizeImage (which should be uploaded in fileServer, and retrievable through the mFullsizeImageLink)
      */
@@ -504,10 +550,10 @@ public class PhotoObject {
         }
         String linkToFullsizeImage = mFullsizeImageLink;
 
-        String thumbnailAsString = BitmapUtils.encodeBitmapAsString(mThumbnail);
+        String thumbnailAsString = BitmapUtils.encodeBytesAsString(mThumbnailBytes);
         return new PhotoObjectStoredInDatabase(linkToFullsizeImage, thumbnailAsString, mPictureId,
                 mAuthorID, mPhotoName, mCreatedDate, mExpireDate, mLatitude, mLongitude, mNbUpvotes,
-                mNbDownvotes, mNbReports, mUpvotersList, mDownvotersList, mReportersList);
+                mNbDownvotes, mNbReports);
     }
 
     @Override
@@ -575,33 +621,151 @@ public class PhotoObject {
         }
     }
 
-    private void giveAuthorHisKarma(final int addedKarma){
-        final DatabaseReference DBref = DatabaseRef.getUsersDirectory();
-        DBref.orderByChild("userId").equalTo(mAuthorID).addListenerForSingleValueEvent(new ValueEventListener() {
+    /** Applies the change of vote of a user to the vote counts currently in the "votes" child of this picture : firebase
+     *  calls doTransaction() again with the new content when someone else changed it in the meantime, and the transaction
+     *  is given up after MAX_VOTE_TRANSACTION_ATTEMPTS. Only the counts and the expire date are read and written, not
+     *  the rest of the picture. The previous vote comes from the index of votes of the user, the picture doesn't store
+     *  its voters. doTransaction() runs on a firebase thread, so it doesn't touch the PhotoObject
+     */
+    private class VoteTransaction implements Transaction.Handler {
+        private final String mVoterId;
+        private final int mPreviousVote;
+        private final int mVote;
+        private final int mKnownUpvotes;
+        private final int mKnownDownvotes;
+        private final long mPictureCreatedDate;
+        private final long mStartTime;
+        private final AtomicInteger mNbAttempts;
+        // the first attempt may run on the local cache, which doesn't hold the votes child yet : only the attempts
+        // following one that received stored counts are retries caused by other voters
+        private final AtomicInteger mNbRetries;
+        private volatile boolean mReceivedStoredVotes;
+        // whether the last attempt created the votes child, i.e. the picture still had its counts next to its other
+        // fields. Firebase only commits the value of an attempt computed on the content of the server, so once
+        // committed, this tells about the server and not about the local cache
+        private volatile boolean mLastAttemptCreatedVotesChild;
+
+        /**
+         * @param knownUpvotes the number of upvotes known before the vote, used if the picture has no votes child yet
+         * @param knownDownvotes the number of downvotes known before the vote
+         */
+        VoteTransaction(String voterId, int previousVote, int vote, int knownUpvotes, int knownDownvotes){
+            mVoterId = voterId;
+            mPreviousVote = previousVote;
+            mVote = vote;
+            mKnownUpvotes = knownUpvotes;
+            mKnownDownvotes = knownDownvotes;
+            mPictureCreatedDate = mCreatedDate.getTime();
+            mStartTime = System.currentTimeMillis();
+            mNbAttempts = new AtomicInteger(0);
+            mNbRetries = new AtomicInteger(0);
+            mReceivedStoredVotes = false;
+            mLastAttemptCreatedVotesChild = false;
+        }
 
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if(dataSnapshot.exists()) {
-                    if(dataSnapshot.child(mAuthorID).child("karma").getValue() == null){
-                        DBref.child(mAuthorID).child("karma").setValue(0);
-                    }
-                    long newKarma = 0;
-
-                    if(dataSnapshot.child(mAuthorID).child("karma").getValue() != null) {
-                        newKarma = ((long) dataSnapshot.child(mAuthorID).child("karma").getValue());
-                    }
-                    newKarma += addedKarma;
-                    DBref.child(mAuthorID).child("karma").setValue(newKarma);
-                    
+        @Override
+        public Transaction.Result doTransaction(MutableData currentData) {
+            if(mNbAttempts.incrementAndGet() > MAX_VOTE_TRANSACTION_ATTEMPTS){
+                return Transaction.abort();
+            }
+            VotesStoredInDatabase storedVotes = currentData.getValue(VotesStoredInDatabase.class);
+            if(mReceivedStoredVotes){
+                mNbRetries.incrementAndGet();
+            }
+            mReceivedStoredVotes |= storedVotes != null;
+            // nothing cached locally yet, or a legacy picture : firebase calls again if the server holds other counts
+            mLastAttemptCreatedVotesChild = storedVotes == null;
+            int nbUpvotes = (storedVotes == null ? mKnownUpvotes : storedVotes.getUpvotes()) + upvotesDelta(mPreviousVote, mVote);
+            int nbDownvotes = (storedVotes == null ? mKnownDownvotes : storedVotes.getDownvotes()) + downvotesDelta(mPreviousVote, mVote);
+
+            currentData.setValue(new VotesStoredInDatabase(nbUpvotes, nbDownvotes,
+                    computeExpireDate(mPictureCreatedDate, nbUpvotes, nbDownvotes)));
+            return Transaction.success(currentData);
+        }
+
+        @Override
+        public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot currentData) {
+            long latency = System.currentTimeMillis() - mStartTime;
+            int nbRetries = mNbRetries.get();
+            mNbVoteRetries += nbRetries;
+            if(committed){
+                mNbCommittedVotes++;
+                mTotalVoteCommitLatency += latency;
+                mMaxVoteCommitLatency = Math.max(mMaxVoteCommitLatency, latency);
+                int karmaAdded = karmaDelta(mPreviousVote, mVote);
+                if(karmaAdded != 0){
+                    giveAuthorHisKarma(karmaAdded);
+                }
+                if(mLastAttemptCreatedVotesChild){
+                    dropLegacyVoteCounts();
+                }
+            }else{
+                mNbAbortedVotes++;
+                Log.w("PhotoObject", "vote on "+mPictureId+" not committed after "+mNbAttempts.get()+" attempts",
+                        databaseError == null ? null : databaseError.toException());
+                // the vote isn't counted : forget it, unless the user voted again in the meantime
+                if(getVoteOf(mVoterId) == mVote){
+                    recordVote(mVoterId, mPreviousVote);
+                }
+            }
+            Log.d("PhotoObject", "vote transaction on "+mPictureId+" : committed="+committed+", retries="+nbRetries+", latency="+latency+"ms");
+            // replace the local preview by what the database holds
+            if(currentData != null && currentData.exists()){
+                currentData.getValue(VotesStoredInDatabase.class).updatePhotoObject(PhotoObject.this);
+                if(LocalDatabase.instanceExists()) {
+                    LocalDatabase.getInstance().updateRadius(PhotoObject.this);
                 }
             }
+        }
+    }
 
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
+    /** Increments the number of reports in the database entry of this picture, and deletes the picture once it reached
+     *  MAX_NB_REPORTS. Only the count is read and written, not the rest of the picture. The reporters are recorded in
+     *  their index of reports, not in the picture
+     */
+    private class ReportTransaction implements Transaction.Handler {
+
+        @Override
+        public Transaction.Result doTransaction(MutableData currentData) {
+            Integer storedReports = currentData.getValue(Integer.class);
+            if(storedReports == null){
+                // nothing cached locally yet (or deleted picture) : firebase calls again with the actual content if there is one
+                return Transaction.success(currentData);
+            }
+            currentData.setValue(storedReports + 1);
+            return Transaction.success(currentData);
+        }
 
+        @Override
+        public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot currentData) {
+            if(!committed){
+                Log.w("PhotoObject", "report on "+mPictureId+" not committed",
+                        databaseError == null ? null : databaseError.toException());
+                return;
+            }
+            if(currentData != null && currentData.exists()) {
+                Integer nbReports = currentData.getValue(Integer.class);
+                if(nbReports != null && nbReports >= MAX_NB_REPORTS){
+                    DatabaseRef.deletePhotoObjectFromDB(mPictureId);
+                    StorageRef.deletePictureFromStorage(mPictureId);
+                    giveAuthorHisKarma(REPORT_DECREASE_KARMA);
+                }
             }
+        }
+    }
 
-        });
+    /** removes the counts that a legacy picture stored next to its other fields, once its votes child was created :
+     *  the expired pictures are found through the expire date of the votes child from then on */
+    private void dropLegacyVoteCounts(){
+        Map<String, Object> legacyCounts = new HashMap<>();
+        legacyCounts.put("upvotes", null);
+        legacyCounts.put("downvotes", null);
+        legacyCounts.put("expireDate", null);
+        DatabaseRef.getMediaDirectory().child(mPictureId).updateChildren(legacyCounts);
+    }
+
+    private void giveAuthorHisKarma(int addedKarma){
+        KarmaService.getInstance().addKarma(mAuthorID, addedKarma);
     }
 }
 
@@ -1,12 +1,18 @@
 package ch.epfl.sweng.spotOn.media;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Base64;
+
+import com.google.firebase.database.Exclude;
+
 import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import ch.epfl.sweng.spotOn.localisation.Geohash;
+import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
+import ch.epfl.sweng.spotOn.user.User;
+import ch.epfl.sweng.spotOn.user.UserManager;
 
 /**
  *  This class represents a photoObject in a form that allows it to be sent to a database.
@@ -21,15 +27,20 @@ public class PhotoObjectStoredInDatabase {
     private String mAuthorID;
     private String mPhotoName;
     private long mCreatedDate;
-    private long mExpireDate;
     private double mLatitude;
     private double mLongitude;
-    private int mNbUpvotes;
-    private int mNbDownvotes;
+    private String mGeohash;
+    private VotesStoredInDatabase mVotes;   // in their own child, so that the vote transactions don't read the thumbnail
     private int mNbReports;
-    private List<String> mUpvotersList;
-    private List<String> mDownvotersList;
-    private List<String> mReportersList;
+    // the pictures uploaded before the votes had their own child store them next to the other fields
+    private int mLegacyNbUpvotes;
+    private int mLegacyNbDownvotes;
+    private long mLegacyExpireDate;
+    // the voters and reporters aren't stored with the picture but in the index of each user, so that the size of
+    // the picture doesn't grow with its popularity. The legacy pictures still have them until they are migrated
+    private List<String> mLegacyUpvoters;
+    private List<String> mLegacyDownvoters;
+    private List<String> mLegacyReporters;
 
     // default constructor required to upload object to firebase
     public PhotoObjectStoredInDatabase(){
@@ -49,69 +60,97 @@ public class PhotoObjectStoredInDatabase {
      * @param upVotes the amount of upVotes on this picture
      * @param downVotes the amount of downVotes on this picture
      * @param reports the amount users whom reported this picture
-     * @param upVotersList the list of users whom upVoted this picture
-     * @param downVotersList the list of users whom downVoted this picture
-     * @param reportersList the list of users whom reported this picture
      */
     public PhotoObjectStoredInDatabase(String fullSizePhotoLink, String thumbnailAsString,
                                        String pictureId, String authorID, String photoName,
                                        Timestamp createdDate, Timestamp expireDate, double latitude,
-                                       double longitude, int upVotes, int downVotes, int reports,
-                                       List<String> upVotersList, List<String> downVotersList,
-                                       List<String> reportersList){
+                                       double longitude, int upVotes, int downVotes, int reports){
         mFullSizePhotoLink=fullSizePhotoLink;
         mThumbnailAsString=thumbnailAsString;
         mPictureId=pictureId;
         mAuthorID=authorID;
         mPhotoName=photoName;
         mCreatedDate=createdDate.getTime();
-        mExpireDate=expireDate.getTime();
         mLatitude=latitude;
         mLongitude=longitude;
-        mNbUpvotes = upVotes;
-        mNbDownvotes = downVotes;
+        mGeohash = Geohash.encode(latitude, longitude, Geohash.STORED_PRECISION);
+        mVotes = new VotesStoredInDatabase(upVotes, downVotes, expireDate.getTime());
         mNbReports = reports;
-        mUpvotersList = new ArrayList<>(upVotersList);
-        mDownvotersList = new ArrayList<>(downVotersList);
-        mReportersList = new ArrayList<>(reportersList);
     }
 
 
 // PUBLIC METHODS OFFERED BY THIS CLASS
 
-    /** converts the object into a PhotoObject, by converting the thumbnail into a Bitmap
+    /** converts the object into a PhotoObject. The thumbnail is only decoded into a Bitmap when the PhotoObject needs it
      */
     public PhotoObject convertToPhotoObject(){
-        Bitmap thumbnail = convertStringToBitmapImage(mThumbnailAsString);
-        List<String> upVotersList;
-        List<String> downVotersList;
-        List<String> reportersList;
-
-        if(mUpvotersList == null){
-            upVotersList = Collections.emptyList();
-        }else{
-            upVotersList = new ArrayList<>(mUpvotersList);
+        byte[] thumbnailBytes = Base64.decode(mThumbnailAsString, Base64.DEFAULT);
+        return new PhotoObject(mFullSizePhotoLink, thumbnailBytes, mPictureId, mAuthorID, mPhotoName, mCreatedDate,
+                mLatitude, mLongitude, getUpvotes(), getDownvotes(), mNbReports);
+    }
+
+    /** applies the votes and reports of this object to an already converted PhotoObject representing the same picture.
+     *  Unlike convertToPhotoObject(), the thumbnail isn't decoded again
+     *  @param photo the local version of this picture
+     */
+    public void updatePhotoObject(PhotoObject photo){
+        if(!photo.getPictureId().equals(mPictureId)){
+            throw new IllegalArgumentException("Trying to update PhotoObject "+photo.getPictureId()+" with the content of "+mPictureId);
         }
+        photo.updateVotesAndReports(getUpvotes(), getDownvotes(), mNbReports);
+    }
+
 
-        if(mDownvotersList == null){
-            downVotersList = Collections.emptyList();
-        }else{
-            downVotersList = new ArrayList<>((mDownvotersList));
+    /** @return true if the picture still carries the lists of its voters or reporters, see migrateLegacyVoters() */
+    @Exclude
+    public boolean hasLegacyVoters(){
+        return mLegacyUpvoters != null || mLegacyDownvoters != null || mLegacyReporters != null;
+    }
+
+    /** moves the voters and reporters listed in a legacy picture to the index of each user, and removes the lists from
+     *  the picture in the same atomic update, so that no vote is lost if it is interrupted. It writes in the index of
+     *  other users, so it is only run by the server (see ServerDeleteExpiredPhotoReceiver), never by the clients
+     *  fetching the picture. Running it twice writes the same values. Does nothing if the picture has no lists
+     */
+    public void migrateLegacyVoters(){
+        if(!hasLegacyVoters()){
+            return;
         }
+        String usersDirectory = DatabaseRef.getUsersDirectory().getKey();
+        String pictureDirectory = DatabaseRef.getMediaDirectory().getKey() + "/" + mPictureId;
+        Map<String, Object> migration = new HashMap<>();
+        addLegacyEntries(migration, mLegacyUpvoters, usersDirectory, "votes", 1);
+        addLegacyEntries(migration, mLegacyDownvoters, usersDirectory, "votes", -1);
+        addLegacyEntries(migration, mLegacyReporters, usersDirectory, "reports", true);
+        migration.put(pictureDirectory + "/upvotersList", null);
+        migration.put(pictureDirectory + "/downvotersList", null);
+        migration.put(pictureDirectory + "/reportersList", null);
+        DatabaseRef.getRootDirectory().updateChildren(migration);
+        mLegacyUpvoters = null;
+        mLegacyDownvoters = null;
+        mLegacyReporters = null;
+    }
 
-        if(mReportersList == null){
-            reportersList = Collections.emptyList();
+    /** until the server migrated a legacy picture, records in the index of the current user his vote and report
+     *  listed in the picture, so that he can't vote twice. Only his own index is written, the picture is left as is
+     */
+    public void applyLegacyVotesOfCurrentUser(){
+        if(!hasLegacyVoters() || !UserManager.instanceExists() || !UserManager.getInstance().userIsLoggedIn()){
+            return;
         }
-        else{
-            reportersList = new ArrayList<>(mReportersList);
+        User user = UserManager.getInstance().getUser();
+        if(user.getVote(mPictureId) == 0){
+            if(mLegacyUpvoters != null && mLegacyUpvoters.contains(user.getUserId())){
+                user.setVote(mPictureId, 1);
+            }else if(mLegacyDownvoters != null && mLegacyDownvoters.contains(user.getUserId())){
+                user.setVote(mPictureId, -1);
+            }
+        }
+        if(mLegacyReporters != null && mLegacyReporters.contains(user.getUserId())){
+            user.addReport(mPictureId);
         }
-
-        return new PhotoObject(mFullSizePhotoLink, thumbnail, mPictureId, mAuthorID, mPhotoName, mCreatedDate,
-                mLatitude, mLongitude, mNbUpvotes, mNbDownvotes, mNbReports, upVotersList, downVotersList,
-                reportersList);
     }
 
-
     // rather meant to be used for debug
     @Override
     public String toString(){
@@ -120,28 +159,13 @@ public class PhotoObjectStoredInDatabase {
         result+="   ---   fullSizePhotoLink="+mFullSizePhotoLink;
         result+="   ---   authorID="+mAuthorID;
         result+="   ---   photoName="+mPhotoName;
-        result+="   ---   createdDate="+mCreatedDate+"   ---   pos=("+mLatitude+", "+mLongitude+")";
-        result+="   ---   upvotes="+mNbUpvotes+" downvotes="+mNbDownvotes;
-        result+="   ---   voters are:"+mDownvotersList.toString()+mUpvotersList.toString();
-        result+="   ---   reporters are:"+mReportersList.toString();
+        result+="   ---   createdDate="+mCreatedDate+"   ---   pos=("+mLatitude+", "+mLongitude+") geohash="+mGeohash;
+        result+="   ---   upvotes="+getUpvotes()+" downvotes="+getDownvotes()+" reports="+mNbReports;
         result+="   ---   thumbnailAsString length="+mThumbnailAsString.length();
         return result;
     }
 
 
-// PRIVATE METHODS FOR USE IN THE CLASS ONLY
-
-    /**
-     * convert a String to a BitMap
-     * @param s the string to be converted
-     * @return the bitmap decoded from the string
-     */
-    private Bitmap convertStringToBitmapImage(String s){
-        byte[] stringByteArray = Base64.decode(s, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(stringByteArray, 0, stringByteArray.length);
-    }
-
-
 // GETTERS REQUIRED (PUBLIC) BY FIREBASE
 
     public String getFullSizePhotoLink(){ return mFullSizePhotoLink;}
@@ -150,15 +174,19 @@ public class PhotoObjectStoredInDatabase {
     public String getAuthorID(){ return mAuthorID;}
     public String getPhotoName(){ return mPhotoName;}
     public long getCreatedDate() { return mCreatedDate; }
-    public long getExpireDate() { return mExpireDate; }
     public double getLatitude(){return mLatitude;}
     public double getLongitude(){return mLongitude;}
-    public int getUpvotes(){return mNbUpvotes;}
-    public int getDownvotes(){return mNbDownvotes;}
+    public String getGeohash(){return mGeohash;}
+    public VotesStoredInDatabase getVotes(){return mVotes;}
     public int getReports(){ return mNbReports;}
-    public List<String> getUpvotersList(){return mUpvotersList;}
-    public List<String> getDownvotersList(){return mDownvotersList;}
-    public List<String> getReportersList(){return mReportersList;}
+
+    // the counts of the votes child, or of the fields of a legacy picture : not written to firebase
+    @Exclude
+    public long getExpireDate() { return mVotes == null ? mLegacyExpireDate : mVotes.getExpireDate(); }
+    @Exclude
+    public int getUpvotes(){return mVotes == null ? mLegacyNbUpvotes : mVotes.getUpvotes();}
+    @Exclude
+    public int getDownvotes(){return mVotes == null ? mLegacyNbDownvotes : mVotes.getDownvotes();}
 
     // SETTER REQUIRED (PUBLIC) BY FIREBASE
 
@@ -168,14 +196,33 @@ public class PhotoObjectStoredInDatabase {
     public void setAuthorID(String authorID){mAuthorID=authorID;}
     public void setPhotoName(String photoName){mPhotoName=photoName;}
     public void setCreatedDate(long createdDate) { mCreatedDate=createdDate; }
-    public void setExpireDate(long expireDate) { mExpireDate=expireDate; }
     public void setLatitude(double latitude){mLatitude=latitude;}
     public void setLongitude(double longitude){mLongitude=longitude;}
-    public void setUpvotes(int upvotes){mNbUpvotes=upvotes;}
-    public void setDownvotes(int downvotes){mNbDownvotes=downvotes;}
+    public void setGeohash(String geohash){mGeohash=geohash;}
+    public void setVotes(VotesStoredInDatabase votes){mVotes=votes;}
     public void setReports(int reports){ mNbReports = reports;}
-    public void setUpvotersList(List<String> upvotersList){mUpvotersList=upvotersList;}
-    public void setDownvotersList(List<String> downvotersList){mDownvotersList=downvotersList;}
-    public void setReportersList(List<String> reportersList){mReportersList=reportersList;}
+
+    // only read from the legacy pictures, the votes child is used when there is one
+    public void setExpireDate(long expireDate) { mLegacyExpireDate=expireDate; }
+    public void setUpvotes(int upvotes){mLegacyNbUpvotes=upvotes;}
+    public void setDownvotes(int downvotes){mLegacyNbDownvotes=downvotes;}
+    public void setUpvotersList(List<String> upvoters){mLegacyUpvoters=upvoters;}
+    public void setDownvotersList(List<String> downvoters){mLegacyDownvoters=downvoters;}
+    public void setReportersList(List<String> reporters){mLegacyReporters=reporters;}
+
+
+// PRIVATE HELPERS
+
+    private void addLegacyEntries(Map<String, Object> migration, List<String> userIds, String usersDirectory,
+                                  String index, Object value){
+        if(userIds == null){
+            return;
+        }
+        for(String userId : userIds){
+            if(userId != null){
+                migration.put(usersDirectory + "/" + userId + "/" + index + "/" + mPictureId, value);
+            }
+        }
+    }
 
 }
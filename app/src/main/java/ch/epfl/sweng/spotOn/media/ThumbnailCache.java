@@ -0,0 +1,139 @@
+package ch.epfl.sweng.spotOn.media;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Bitmaps of the thumbnails, decoded from the compressed bytes kept by the PhotoObjects when they are first needed.
+ * The total size of the bitmaps is bounded, the least recently used ones being dropped (and decoded again if needed),
+ * so that the memory used follows the photos actually displayed rather than all the photos fetched.
+ * Registered as ComponentCallbacks2 to shrink when the system is low on memory.
+ * The bitmaps are immutable, so the same instance can be handed to every view without copying it.
+ */
+public class ThumbnailCache implements ComponentCallbacks2 {
+
+    private final static int FRACTION_OF_HEAP = 16;    // the cache can use 1/16 of the maximum heap
+
+    private static ThumbnailCache mSingleInstance = null;
+
+    private final LruCache<String, CachedThumbnail> mThumbnails;
+    private boolean mRegisteredForMemoryCallbacks;
+
+
+    public static synchronized ThumbnailCache getInstance(){
+        if(mSingleInstance == null){
+            mSingleInstance = new ThumbnailCache((int) (Runtime.getRuntime().maxMemory() / FRACTION_OF_HEAP));
+        }
+        return mSingleInstance;
+    }
+
+    /** lets the system tell the cache when memory is low, only registers once even if called several times */
+    public static synchronized void registerMemoryCallbacks(Context c){
+        ThumbnailCache cache = getInstance();
+        if(!cache.mRegisteredForMemoryCallbacks){
+            c.getApplicationContext().registerComponentCallbacks(cache);
+            cache.mRegisteredForMemoryCallbacks = true;
+        }else{
+            Log.d("ThumbnailCache","tried to register for memory callbacks, but already registered");
+        }
+    }
+
+    private ThumbnailCache(int maxSizeInBytes){
+        mThumbnails = new LruCache<String, CachedThumbnail>(maxSizeInBytes) {
+            @Override
+            protected int sizeOf(String pictureId, CachedThumbnail thumbnail) {
+                return thumbnail.bitmap.getByteCount();
+            }
+        };
+        mRegisteredForMemoryCallbacks = false;
+    }
+
+
+//PUBLIC METHODS
+    /**
+     * @param pictureId the picture the thumbnail belongs to
+     * @param compressedThumbnail the compressed thumbnail of the picture, decoded if it isn't cached yet
+     * @return the decoded (immutable) thumbnail, or null if it can't be decoded
+     */
+    public Bitmap get(String pictureId, byte[] compressedThumbnail){
+        if(compressedThumbnail == null){
+            return null;
+        }
+        CachedThumbnail cached = mThumbnails.get(pictureId);
+        // several PhotoObjects can have the same id (e.g. in tests), the bytes tell which thumbnail is cached
+        if(cached == null || cached.compressedThumbnail != compressedThumbnail){
+            Bitmap bitmap = BitmapFactory.decodeByteArray(compressedThumbnail, 0, compressedThumbnail.length);
+            if(bitmap == null){
+                Log.e("ThumbnailCache", "could not decode the thumbnail of "+pictureId);
+                return null;
+            }
+            cached = new CachedThumbnail(compressedThumbnail, bitmap);
+            mThumbnails.put(pictureId, cached);
+        }
+        return cached.bitmap;
+    }
+
+    /**
+     * @return the decoded thumbnail if it is cached, null otherwise : never decodes, so it can be used while scrolling
+     */
+    public Bitmap peek(String pictureId, byte[] compressedThumbnail){
+        CachedThumbnail cached = mThumbnails.get(pictureId);
+        if(cached == null || compressedThumbnail == null || cached.compressedThumbnail != compressedThumbnail){
+            return null;
+        }
+        return cached.bitmap;
+    }
+
+    /** caches a thumbnail that is already decoded, e.g. right after its creation */
+    public void put(String pictureId, byte[] compressedThumbnail, Bitmap bitmap){
+        if(bitmap.isMutable()){
+            bitmap = bitmap.copy(bitmap.getConfig(), false);
+        }
+        mThumbnails.put(pictureId, new CachedThumbnail(compressedThumbnail, bitmap));
+    }
+
+    public int sizeInBytes(){
+        return mThumbnails.size();
+    }
+
+    public void clear(){
+        mThumbnails.evictAll();
+    }
+
+
+//MEMORY CALLBACKS
+    @Override
+    public void onTrimMemory(int level) {
+        if(level >= TRIM_MEMORY_MODERATE){
+            // the app is in the background and likely to be killed, the thumbnails can be decoded again if it comes back
+            mThumbnails.evictAll();
+        }else if(level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL){
+            mThumbnails.trimToSize(mThumbnails.size() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mThumbnails.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+
+    private static class CachedThumbnail {
+        final byte[] compressedThumbnail;
+        final Bitmap bitmap;
+
+        CachedThumbnail(byte[] compressedThumbnail, Bitmap bitmap){
+            this.compressedThumbnail = compressedThumbnail;
+            this.bitmap = bitmap;
+        }
+    }
+}
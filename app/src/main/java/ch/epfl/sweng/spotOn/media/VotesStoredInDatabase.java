@@ -0,0 +1,52 @@
+package ch.epfl.sweng.spotOn.media;
+
+/**
+ *  The vote counts of a picture, as stored in the "votes" child of its database entry. They are kept apart from the
+ *  rest of the picture so that the vote transactions only read and write these few values, not the thumbnail.
+ *  The expire date is stored with them since it is derived from the votes.
+ */
+public class VotesStoredInDatabase {
+
+    private int mNbUpvotes;
+    private int mNbDownvotes;
+    private long mExpireDate;
+
+    // default constructor required to upload object to firebase
+    public VotesStoredInDatabase(){
+    }
+
+    /**
+     * @param upVotes the amount of upVotes on the picture
+     * @param downVotes the amount of downVotes on the picture
+     * @param expireDate the date of expiration of the picture, in ms
+     */
+    public VotesStoredInDatabase(int upVotes, int downVotes, long expireDate){
+        mNbUpvotes = upVotes;
+        mNbDownvotes = downVotes;
+        mExpireDate = expireDate;
+    }
+
+
+// PUBLIC METHODS OFFERED BY THIS CLASS
+
+    /** applies these votes to the local version of the picture, the rest of it is left as it is */
+    public void updatePhotoObject(PhotoObject photo){
+        photo.updateVotesAndReports(mNbUpvotes, mNbDownvotes, photo.getReports());
+    }
+
+    @Override
+    public String toString(){
+        return "upvotes="+mNbUpvotes+" downvotes="+mNbDownvotes+" expireDate="+mExpireDate;
+    }
+
+
+// GETTERS AND SETTERS REQUIRED (PUBLIC) BY FIREBASE
+
+    public int getUpvotes(){ return mNbUpvotes;}
+    public int getDownvotes(){ return mNbDownvotes;}
+    public long getExpireDate(){ return mExpireDate;}
+
+    public void setUpvotes(int upvotes){ mNbUpvotes = upvotes;}
+    public void setDownvotes(int downvotes){ mNbDownvotes = downvotes;}
+    public void setExpireDate(long expireDate){ mExpireDate = expireDate;}
+}
@@ -1,6 +1,8 @@
 package ch.epfl.sweng.spotOn.user;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 
@@ -31,6 +33,14 @@ public class EmptyUser implements User {
     }
     @Override
     public void removePhoto(String pictureID) { throw  new UnsupportedOperationException(); }
+    @Override
+    public void setVote(String pictureID, int vote) {
+        throw new UnsupportedOperationException();
+    }
+    @Override
+    public void addReport(String pictureID) {
+        throw new UnsupportedOperationException();
+    }
 
     @Override
     public String getFirstName() {
@@ -64,6 +74,22 @@ public class EmptyUser implements User {
         return true;
     }
 
+    // a user who isn't logged in has no vote nor report, the pictures can be filtered without checking the login
+    @Override
+    public int getVote(String pictureID) {
+        return 0;
+    }
+
+    @Override
+    public boolean hasReported(String pictureID) {
+        return false;
+    }
+
+    @Override
+    public Set<String> getReportedPictures() {
+        return Collections.emptySet();
+    }
+
     @Override
     public void setKarma(long karma) {
         throw new UnsupportedOperationException();
@@ -0,0 +1,117 @@
+package ch.epfl.sweng.spotOn.user;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.epfl.sweng.spotOn.singletonReferences.DatabaseRef;
+
+/**
+ * Gives karma to the users, by incrementing UsersDirectory/userId/karma with a transaction, so that concurrent
+ * increments from several devices are never lost. The increments for the same user received within
+ * COALESCING_WINDOW are summed and written at once (e.g. a user switching his vote several times).
+ * Meant to be used from the main thread only.
+ */
+public class KarmaService {
+
+    private final static int COALESCING_WINDOW = 2000; // in ms
+
+    private static KarmaService mSingleInstance = null;
+
+    private final Map<String, Long> mPendingKarma;  // karma not written yet, by userId
+    private final Handler mMainHandler;
+    private boolean mFlushScheduled;
+
+
+    public static KarmaService getInstance(){
+        if(mSingleInstance == null){
+            mSingleInstance = new KarmaService();
+        }
+        return mSingleInstance;
+    }
+
+    private KarmaService(){
+        mPendingKarma = new HashMap<>();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mFlushScheduled = false;
+    }
+
+
+//PUBLIC METHODS
+    /** adds (or removes, if negative) karma to the user, written in the database within COALESCING_WINDOW */
+    public void addKarma(String userId, long addedKarma){
+        if(userId == null){
+            throw new IllegalArgumentException("can't give karma to a null userId");
+        }
+        Long pending = mPendingKarma.get(userId);
+        mPendingKarma.put(userId, pending == null ? addedKarma : pending + addedKarma);
+        if(!mFlushScheduled){
+            mFlushScheduled = true;
+            mMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, COALESCING_WINDOW);
+        }
+    }
+
+    /** @return the karma given to the user that isn't written in the database yet */
+    public long getPendingKarma(String userId){
+        Long pending = mPendingKarma.get(userId);
+        return pending == null ? 0 : pending;
+    }
+
+
+//PRIVATE HELPERS
+    private void flush(){
+        mFlushScheduled = false;
+        for(Map.Entry<String, Long> pending : mPendingKarma.entrySet()){
+            if(pending.getValue() != 0){
+                DatabaseRef.getUsersDirectory().child(pending.getKey()).child("karma")
+                        .runTransaction(new KarmaIncrement(pending.getKey(), pending.getValue()));
+            }
+        }
+        mPendingKarma.clear();
+    }
+
+    /** adds the karma to the current value in the database, without creating the users that don't exist */
+    private static class KarmaIncrement implements Transaction.Handler {
+        private final String mUserId;
+        private final long mAddedKarma;
+
+        KarmaIncrement(String userId, long addedKarma){
+            mUserId = userId;
+            mAddedKarma = addedKarma;
+        }
+
+        @Override
+        public Transaction.Result doTransaction(MutableData currentKarma) {
+            Long karma = currentKarma.getValue(Long.class);
+            if(karma == null){
+                // not cached locally yet : firebase calls again with the value of the server, if the user exists
+                return Transaction.success(currentKarma);
+            }
+            currentKarma.setValue(karma + mAddedKarma);
+            return Transaction.success(currentKarma);
+        }
+
+        @Override
+        public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot currentKarma) {
+            if(!committed){
+                Log.w("KarmaService", "could not give "+mAddedKarma+" karma to "+mUserId,
+                        databaseError == null ? null : databaseError.toException());
+            }else if(currentKarma == null || currentKarma.getValue() == null){
+                Log.d("KarmaService", "user "+mUserId+" has no karma in the database, "+mAddedKarma+" karma not given");
+            }
+        }
+    }
+}
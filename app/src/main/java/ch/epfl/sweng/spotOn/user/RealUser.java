@@ -11,6 +11,7 @@ import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -25,6 +26,9 @@ public class RealUser implements User {
     private String mUserId;
     private long mKarma;
     private Map<String, Long> mPhotosTaken;
+    // index of the votes and reports of this user, so that the pictures don't need to carry their voters and reporters
+    private Map<String, Long> mVotes;
+    private Set<String> mReportedPictures;
     private UserManager mManager;
 
     private static boolean mIsRetrievedFromDB;
@@ -37,6 +41,8 @@ public class RealUser implements User {
         mUserId = userId;
         mKarma = User.INITIAL_KARMA;
         mPhotosTaken = new HashMap<>();
+        mVotes = new HashMap<>();
+        mReportedPictures = new HashSet<>();
         mIsRetrievedFromDB = false;
         mManager = manager;
         lookUpUserInDatabase();
@@ -86,6 +92,23 @@ public class RealUser implements User {
         DatabaseRef.getUsersDirectory().child(mUserId).child("photosTaken").setValue(mPhotosTaken);
     }
 
+    public void setVote(String pictureID, int vote){
+        DatabaseReference voteRef = DatabaseRef.getUsersDirectory().child(mUserId).child("votes").child(pictureID);
+        if(vote == 0){
+            mVotes.remove(pictureID);
+            voteRef.removeValue();
+        }else{
+            mVotes.put(pictureID, (long) vote);
+            voteRef.setValue(vote);
+        }
+    }
+
+    public void addReport(String pictureID){
+        if(mReportedPictures.add(pictureID)){
+            DatabaseRef.getUsersDirectory().child(mUserId).child("reports").child(pictureID).setValue(true);
+        }
+    }
+
     public Map<String, Long> retrieveUpdatedPhotosTaken() {
         updatePhotosTaken();
         return mPhotosTaken;
@@ -99,6 +122,12 @@ public class RealUser implements User {
     public long getKarma() { return mKarma; }
     public Map<String, Long> getPhotosTaken() { return mPhotosTaken; }
     public boolean getIsRetrievedFromDB() { return mIsRetrievedFromDB; }
+    public int getVote(String pictureID){
+        Long vote = mVotes.get(pictureID);
+        return vote == null ? 0 : vote.intValue();
+    }
+    public boolean hasReported(String pictureID){ return mReportedPictures.contains(pictureID); }
+    public Set<String> getReportedPictures(){ return new HashSet<>(mReportedPictures); }
 
 
     //PUBLIC SETTERS
@@ -164,6 +193,12 @@ public class RealUser implements User {
                                 refToThis.setPhotosTaken(mPhotosTaken);
                                 refToThis.updatePhotosTaken();
                             }
+                            if(retrievedUser.getVotes() != null){
+                                mVotes = new HashMap<>(retrievedUser.getVotes());
+                            }
+                            if(retrievedUser.getReports() != null){
+                                mReportedPictures = new HashSet<>(retrievedUser.getReports().keySet());
+                            }
                             refToThis.setKarma(mKarma);
                             refToThis.setIsRetrievedFromDB(true);
                         }
@@ -1,6 +1,7 @@
 package ch.epfl.sweng.spotOn.user;
 
 import java.util.Map;
+import java.util.Set;
 
 import ch.epfl.sweng.spotOn.media.PhotoObject;
 
@@ -25,6 +26,10 @@ public interface User {
     void addPhoto(PhotoObject photo);
     long computeRemainingPhotos();
     void removePhoto(String pictureID);
+    /** records the vote (1, -1, or 0 to cancel it) of the user on the picture in his index of votes */
+    void setVote(String pictureID, int vote);
+    /** records that the user reported the picture in his index of reports */
+    void addReport(String pictureID);
 
 //PUBLIC GETTERS
     String getFirstName();
@@ -34,6 +39,11 @@ public interface User {
     Map<String, Long> getPhotosTaken();
     Map<String, Long> retrieveUpdatedPhotosTaken();
     boolean getIsRetrievedFromDB();
+    /** @return the vote of the user on the picture : 1, -1, or 0 if he didn't vote */
+    int getVote(String pictureID);
+    boolean hasReported(String pictureID);
+    /** @return a copy of the ids of the pictures reported by the user */
+    Set<String> getReportedPictures();
 
 //PUBLIC SETTERS
     void setKarma(long karma);
@@ -69,8 +69,11 @@ public class UserManager {
         }
     }
 
+    /** adds the listener, unless it already listens (the singletons can be initialized by several activities) */
     public void addListener(UserListener l){
-        listeners.add(l);
+        if(!listeners.contains(l)){
+            listeners.add(l);
+        }
     }
 
     /** Set user - for tests only   */
@@ -18,6 +18,8 @@ public class UserStoredInDatabase {
     private String mUserId;
     private long mKarma;
     private Map<String, Long> mPhotosTaken;
+    private Map<String, Long> mVotes;       // pictureId -> 1 or -1
+    private Map<String, Boolean> mReports;  // pictureId -> true
 
     @SuppressWarnings("unused")
     public UserStoredInDatabase(){} // needed for use of firebase database
@@ -28,6 +30,9 @@ public class UserStoredInDatabase {
         mUserId = user.getUserId();
         mKarma = user.getKarma();
         mPhotosTaken = user.getPhotosTaken();
+        // a user is only uploaded when he's created, before any vote or report
+        mVotes = null;
+        mReports = null;
     }
 
     /**
@@ -45,6 +50,8 @@ public class UserStoredInDatabase {
     public String getUserId(){ return mUserId; }
     public long getKarma() { return mKarma; }
     public Map<String, Long> getPhotosTaken(){ return mPhotosTaken; }
+    public Map<String, Long> getVotes(){ return mVotes; }
+    public Map<String, Boolean> getReports(){ return mReports; }
 
     //PUBLIC SETTERS
     public void setFirstName(String firstName){ mFirstName = firstName; }
@@ -52,4 +59,6 @@ public class UserStoredInDatabase {
     public void setUserId(String userId){ mUserId = userId; }
     public void setKarma(long karma){ mKarma = karma; }
     public void setPhotosTaken(Map<String, Long> photosTaken) { mPhotosTaken = photosTaken; }
+    public void setVotes(Map<String, Long> votes) { mVotes = votes; }
+    public void setReports(Map<String, Boolean> reports) { mReports = reports; }
 }
@@ -23,9 +23,23 @@ public class BitmapUtils {
      * encodes the passed bitmap into a string
      */
     public static String encodeBitmapAsString(Bitmap img){
+        return encodeBytesAsString(compressBitmap(img));
+    }
+
+    /**
+     * encodes the passed compressed image into a string
+     */
+    public static String encodeBytesAsString(byte[] compressedImg){
+        return Base64.encodeToString(compressedImg, Base64.DEFAULT);
+    }
+
+    /**
+     * compresses the passed bitmap without loss (PNG)
+     */
+    public static byte[] compressBitmap(Bitmap img){
         ByteArrayOutputStream byteArrayOS = new ByteArrayOutputStream();
         img.compress(Bitmap.CompressFormat.PNG, 100, byteArrayOS);
-        return Base64.encodeToString(byteArrayOS.toByteArray(), Base64.DEFAULT);
+        return byteArrayOS.toByteArray();
     }
 
     /**
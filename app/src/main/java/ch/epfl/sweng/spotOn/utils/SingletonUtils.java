@@ -4,9 +4,13 @@ import android.content.Context;
 import android.location.LocationManager;
 
 import ch.epfl.sweng.spotOn.FirebaseConnectionTracker.ConcreteFirebaseConnectionTracker;
+import ch.epfl.sweng.spotOn.gui.MarkerIconCache;
 import ch.epfl.sweng.spotOn.localObjects.LocalDatabase;
 import ch.epfl.sweng.spotOn.localisation.ConcreteLocationManagerWrapper;
 import ch.epfl.sweng.spotOn.localisation.ConcreteLocationTracker;
+import ch.epfl.sweng.spotOn.media.FullSizeImageCache;
+import ch.epfl.sweng.spotOn.media.FullSizeImageLoader;
+import ch.epfl.sweng.spotOn.media.ThumbnailCache;
 import ch.epfl.sweng.spotOn.user.UserManager;
 
 /**
@@ -20,6 +24,11 @@ public class SingletonUtils {
         ConcreteLocationTracker.initialize(new ConcreteLocationManagerWrapper((LocationManager) c.getSystemService(Context.LOCATION_SERVICE)));
         LocalDatabase.initialize(ConcreteLocationTracker.getInstance());
         UserManager.initialize();
+        UserManager.getInstance().addListener(LocalDatabase.getInstance());
         ServicesChecker.initialize(ConcreteLocationTracker.getInstance(), LocalDatabase.getInstance(), UserManager.getInstance(), ConcreteFirebaseConnectionTracker.getInstance());
+        ThumbnailCache.registerMemoryCallbacks(c);
+        MarkerIconCache.registerMemoryCallbacks(c);
+        FullSizeImageCache.initialize(c);
+        FullSizeImageLoader.initializeDiskCache(c);
     }
 }
@@ -0,0 +1,89 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ch.epfl.sweng.spotOn.localObjects.CircleStabbingIndex;
+import ch.epfl.sweng.spotOn.localisation.LocalizationUtils;
+import ch.epfl.sweng.spotOn.media.PhotoObject;
+
+/**
+ * Checks the CircleStabbingIndex used to find the viewable photos against a linear scan,
+ * also after changing the radius of some circles like a vote would
+ */
+public class CircleStabbingIndexTest {
+
+    private final static double CENTER_LATITUDE = 46.5;
+    private final static double CENTER_LONGITUDE = 6.6;
+    private final static double SPREAD_IN_DEGREES = 0.3;
+    private final static int NB_CIRCLES = 5000;
+    private final static int NB_QUERIES = 500;
+
+    @Test
+    public void findsTheSameCirclesAsALinearScan() {
+        Random random = new Random(0);
+        double[][] circles = new double[NB_CIRCLES][3];
+        CircleStabbingIndex index = new CircleStabbingIndex(PhotoObject.MIN_VIEW_RADIUS);
+        for (int i = 0; i < NB_CIRCLES; i++) {
+            circles[i][0] = CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            circles[i][1] = CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            circles[i][2] = randomRadius(random);
+            index.put("photo" + i, circles[i][0], circles[i][1], circles[i][2]);
+        }
+        checkAgainstLinearScan(index, circles, random);
+
+        for (int i = 0; i < NB_CIRCLES; i += 3) {
+            circles[i][2] = randomRadius(random);
+            index.updateRadius("photo" + i, circles[i][2]);
+        }
+        checkAgainstLinearScan(index, circles, random);
+        if (index.size() != NB_CIRCLES) {
+            throw new AssertionError("updating radiuses changed the number of circles : " + index.size());
+        }
+    }
+
+    @Test
+    public void removedCirclesAreNotFound() {
+        CircleStabbingIndex index = new CircleStabbingIndex(PhotoObject.MIN_VIEW_RADIUS);
+        index.put("small", CENTER_LATITUDE, CENTER_LONGITUDE, PhotoObject.MIN_VIEW_RADIUS);
+        index.put("large", CENTER_LATITUDE, CENTER_LONGITUDE, PhotoObject.MAX_VIEW_RADIUS);
+        if (index.idsContaining(CENTER_LATITUDE, CENTER_LONGITUDE).size() != 2) {
+            throw new AssertionError("both circles contain their center");
+        }
+        index.remove("large");
+        List<String> ids = index.idsContaining(CENTER_LATITUDE, CENTER_LONGITUDE);
+        if (ids.size() != 1 || !ids.get(0).equals("small") || index.contains("large")) {
+            throw new AssertionError("removed circle still indexed : " + ids);
+        }
+        index.updateRadius("large", PhotoObject.MAX_VIEW_RADIUS);
+        if (index.contains("large")) {
+            throw new AssertionError("updating the radius of a removed circle added it again");
+        }
+    }
+
+
+    private static void checkAgainstLinearScan(CircleStabbingIndex index, double[][] circles, Random random) {
+        for (int q = 0; q < NB_QUERIES; q++) {
+            double latitude = CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            double longitude = CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            Set<String> expected = new HashSet<>();
+            for (int i = 0; i < circles.length; i++) {
+                if (LocalizationUtils.distanceBetween(latitude, longitude, circles[i][0], circles[i][1]) < circles[i][2]) {
+                    expected.add("photo" + i);
+                }
+            }
+            Set<String> found = new HashSet<>(index.idsContaining(latitude, longitude));
+            if (!found.equals(expected)) {
+                throw new AssertionError("index and linear scan disagree around (" + latitude + ", " + longitude + ")");
+            }
+        }
+    }
+
+    private static double randomRadius(Random random) {
+        return PhotoObject.MIN_VIEW_RADIUS + random.nextDouble() * (PhotoObject.MAX_VIEW_RADIUS - PhotoObject.MIN_VIEW_RADIUS);
+    }
+}
@@ -0,0 +1,54 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import ch.epfl.sweng.spotOn.gui.ClusterRenderPolicy;
+
+/**
+ * Checks the size threshold and zoom cutoffs of the ClusterRenderPolicy used by the ClusterRenderer
+ */
+public class ClusterRenderPolicyTest {
+
+    private final static float MAX_ZOOM = 21;
+
+    @Test
+    public void defaultPolicyKeepsThePreviousBehaviour() {
+        ClusterRenderPolicy.RenderState state = ClusterRenderPolicy.DEFAULT.stateFor(12, MAX_ZOOM);
+        if (state.shouldRenderAsCluster(4) || !state.shouldRenderAsCluster(5)) {
+            throw new AssertionError("clusters should need 5 pins by default");
+        }
+        if (!ClusterRenderPolicy.DEFAULT.stateFor(MAX_ZOOM - 3, MAX_ZOOM).shouldRenderAsCluster(5)) {
+            throw new AssertionError("pins should still be grouped 3 levels below the maximum zoom");
+        }
+        if (ClusterRenderPolicy.DEFAULT.stateFor(MAX_ZOOM - 2.5f, MAX_ZOOM).shouldRenderAsCluster(100)) {
+            throw new AssertionError("pins shouldn't be grouped closer than 3 levels to the maximum zoom");
+        }
+    }
+
+    @Test
+    public void policyIsTunable() {
+        ClusterRenderPolicy policy = new ClusterRenderPolicy(2, 0);
+        if (!policy.stateFor(MAX_ZOOM, MAX_ZOOM).shouldRenderAsCluster(2)) {
+            throw new AssertionError("with no unclustered zoom level, pins should be grouped up to the maximum zoom");
+        }
+        if (policy.stateFor(MAX_ZOOM, MAX_ZOOM).shouldRenderAsCluster(1)) {
+            throw new AssertionError("a single pin isn't a cluster");
+        }
+    }
+
+    @Test
+    public void thumbnailMarkersAreShownFromTheirZoomOn() {
+        if (ClusterRenderPolicy.DEFAULT.stateFor(MAX_ZOOM, MAX_ZOOM).useThumbnailMarkers()) {
+            throw new AssertionError("the default policy shouldn't show thumbnail markers");
+        }
+        ClusterRenderPolicy policy = new ClusterRenderPolicy(5, 3, 17);
+        if (policy.stateFor(16.9f, MAX_ZOOM).useThumbnailMarkers() || !policy.stateFor(17, MAX_ZOOM).useThumbnailMarkers()) {
+            throw new AssertionError("thumbnail markers should be shown from zoom 17 on");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void clustersOfOnePinAreRejected() {
+        new ClusterRenderPolicy(1, 3);
+    }
+}
@@ -0,0 +1,137 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ch.epfl.sweng.spotOn.gui.ClusterTree;
+
+/**
+ * Checks that the ClusterTree used by the map groups each item in exactly one cluster per zoom level,
+ * also after removals, and that its viewport queries match the clusters of the whole level
+ */
+public class ClusterTreeTest {
+
+    private final static int MIN_ZOOM = 8;
+    private final static int MAX_ZOOM = 21;
+    private final static double CENTER_LATITUDE = 46.52;
+    private final static double CENTER_LONGITUDE = 6.57;
+
+    @Test
+    public void everyItemIsInExactlyOneClusterPerZoom() {
+        ClusterTree<String> tree = new ClusterTree<>(MIN_ZOOM, MAX_ZOOM);
+        List<String> items = insertRandomItems(tree, 3000, new Random(0));
+        checkPartition(tree, new HashSet<>(items));
+    }
+
+    @Test
+    public void removedItemsLeaveTheirClusters() {
+        ClusterTree<String> tree = new ClusterTree<>(MIN_ZOOM, MAX_ZOOM);
+        Random random = new Random(1);
+        List<String> items = insertRandomItems(tree, 2000, random);
+        Set<String> remaining = new HashSet<>(items);
+        for (int i = 0; i < items.size(); i += 2) {
+            tree.remove(items.get(i));
+            remaining.remove(items.get(i));
+        }
+        tree.remove("never inserted");
+        checkPartition(tree, remaining);
+        // and the tree keeps working with new items
+        remaining.addAll(insertRandomItems(tree, 500, random));
+        checkPartition(tree, remaining);
+    }
+
+    @Test
+    public void closeItemsAreGroupedAndFarItemsAreNot() {
+        ClusterTree<String> tree = new ClusterTree<>(MIN_ZOOM, MAX_ZOOM);
+        tree.insert("a", CENTER_LATITUDE, CENTER_LONGITUDE);
+        tree.insert("b", CENTER_LATITUDE + 0.0001, CENTER_LONGITUDE);   // ~11m away
+        tree.insert("c", CENTER_LATITUDE + 1, CENTER_LONGITUDE);        // ~110km away
+        if (tree.getClusters(MIN_ZOOM).size() != 2) {
+            throw new AssertionError("a and b should be grouped at zoom " + MIN_ZOOM + ", but not with c");
+        }
+        if (tree.getClusters(MAX_ZOOM).size() != 3) {
+            throw new AssertionError("nothing should be grouped at zoom " + MAX_ZOOM);
+        }
+        if (tree.getClusters(MAX_ZOOM + 5).size() != 3 || tree.getClusters(0).size() != 2) {
+            throw new AssertionError("zooms out of the range should give the clusters of the closest level");
+        }
+    }
+
+    @Test
+    public void viewportQueryMatchesTheWholeLevel() {
+        ClusterTree<String> tree = new ClusterTree<>(MIN_ZOOM, MAX_ZOOM);
+        insertRandomItems(tree, 3000, new Random(2));
+        double south = CENTER_LATITUDE - 0.01;
+        double north = CENTER_LATITUDE + 0.02;
+        double west = CENTER_LONGITUDE - 0.03;
+        double east = CENTER_LONGITUDE + 0.01;
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            Set<ClusterTree.Node<String>> expected = new HashSet<>();
+            for (ClusterTree.Node<String> cluster : tree.getClusters(zoom)) {
+                if (cluster.getLatitude() >= south && cluster.getLatitude() <= north
+                        && cluster.getLongitude() >= west && cluster.getLongitude() <= east) {
+                    expected.add(cluster);
+                }
+            }
+            Set<ClusterTree.Node<String>> inViewport = new HashSet<>(tree.getClusters(zoom, south, west, north, east));
+            // positions are compared after a projection and back, ignore the clusters right on the border
+            Set<ClusterTree.Node<String>> difference = new HashSet<>(expected);
+            difference.addAll(inViewport);
+            for (ClusterTree.Node<String> cluster : difference) {
+                boolean onBorder = Math.abs(cluster.getLatitude() - south) < 1e-9 || Math.abs(cluster.getLatitude() - north) < 1e-9
+                        || Math.abs(cluster.getLongitude() - west) < 1e-9 || Math.abs(cluster.getLongitude() - east) < 1e-9;
+                if (expected.contains(cluster) != inViewport.contains(cluster) && !onBorder) {
+                    throw new AssertionError("viewport query and whole level disagree at zoom " + zoom);
+                }
+            }
+        }
+    }
+
+
+    private static List<String> insertRandomItems(ClusterTree<String> tree, int nbItems, Random random) {
+        List<String> items = new ArrayList<>(nbItems);
+        for (int i = 0; i < nbItems; i++) {
+            String item = "item" + random.nextLong();
+            // most of the items in town, some further away
+            double spread = random.nextInt(10) == 0 ? 1.0 : 0.05;
+            tree.insert(item, CENTER_LATITUDE + (random.nextDouble() - 0.5) * spread,
+                    CENTER_LONGITUDE + (random.nextDouble() - 0.5) * spread);
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static void checkPartition(ClusterTree<String> tree, Set<String> expectedItems) {
+        if (tree.size() != expectedItems.size()) {
+            throw new AssertionError("the tree should contain " + expectedItems.size() + " items, not " + tree.size());
+        }
+        int previousNbClusters = 0;
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            Set<String> seen = new HashSet<>();
+            for (ClusterTree.Node<String> cluster : tree.getClusters(zoom)) {
+                List<String> clusterItems = cluster.getItems();
+                if (clusterItems.isEmpty() || clusterItems.size() != cluster.getSize()) {
+                    throw new AssertionError("cluster of size " + cluster.getSize() + " with " + clusterItems.size() + " items at zoom " + zoom);
+                }
+                for (String item : clusterItems) {
+                    if (!seen.add(item)) {
+                        throw new AssertionError(item + " is in several clusters at zoom " + zoom);
+                    }
+                }
+            }
+            if (!seen.equals(expectedItems)) {
+                throw new AssertionError("the clusters of zoom " + zoom + " don't contain exactly the items of the tree");
+            }
+            int nbClusters = tree.getClusters(zoom).size();
+            if (nbClusters < previousNbClusters) {
+                throw new AssertionError("zooming in shouldn't merge clusters");
+            }
+            previousNbClusters = nbClusters;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ch.epfl.sweng.spotOn.test;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.algo.Algorithm;
+import com.google.maps.android.clustering.algo.NonHierarchicalDistanceBasedAlgorithm;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ch.epfl.sweng.spotOn.gui.HierarchicalClusterAlgorithm;
+
+/**
+ * JVM benchmark comparing the HierarchicalClusterAlgorithm of the map to the default algorithm of android-maps-utils
+ * it replaced, for 2k and 10k pins : the dataset changes by one pin, then the user zooms through all the levels.
+ * The hierarchical algorithm must give its clusters faster than the default one.
+ */
+public class ClusteringBenchmark {
+
+    private final static double CENTER_LATITUDE = 46.52;
+    private final static double CENTER_LONGITUDE = 6.57;
+    private final static double SPREAD_IN_DEGREES = 0.2;
+    private final static int MIN_ZOOM = 8;
+    private final static int MAX_ZOOM = 18;
+    private final static int NB_ROUNDS = 20;
+    private final static int NB_WARM_UP_ROUNDS = 3;
+
+    @Test
+    public void clusteringWith2kPins() {
+        compareToDefaultAlgorithm(2000);
+    }
+
+    @Test
+    public void clusteringWith10kPins() {
+        compareToDefaultAlgorithm(10000);
+    }
+
+
+    private void compareToDefaultAlgorithm(int nbPins) {
+        Random random = new Random(nbPins);
+        List<BenchmarkItem> items = new ArrayList<>(nbPins);
+        for (int i = 0; i < nbPins; i++) {
+            items.add(randomItem(random));
+        }
+        List<BenchmarkItem> changes = new ArrayList<>(NB_ROUNDS);
+        for (int i = 0; i < NB_ROUNDS; i++) {
+            changes.add(randomItem(random));
+        }
+
+        for (int round = 0; round < NB_WARM_UP_ROUNDS; round++) {
+            measure(new NonHierarchicalDistanceBasedAlgorithm<BenchmarkItem>(), items, changes);
+            measure(new HierarchicalClusterAlgorithm<BenchmarkItem>(), items, changes);
+        }
+        long[] defaultTimes = measure(new NonHierarchicalDistanceBasedAlgorithm<BenchmarkItem>(), items, changes);
+        long[] hierarchicalTimes = measure(new HierarchicalClusterAlgorithm<BenchmarkItem>(), items, changes);
+
+        String timings = nbPins + " pins : default algorithm " + defaultTimes[0] / 1000 + "us to add the pins, "
+                + defaultTimes[1] / 1000 + "us per zoom level, hierarchical algorithm " + hierarchicalTimes[0] / 1000
+                + "us to add the pins, " + hierarchicalTimes[1] / 1000 + "us per zoom level";
+        if (defaultTimes[2] == 0 || hierarchicalTimes[2] == 0) {
+            throw new AssertionError("both algorithms should give clusters, " + timings);
+        }
+        // the map asks for the clusters at every zoom, which is what the hierarchy precomputes
+        if (hierarchicalTimes[1] >= defaultTimes[1]) {
+            throw new AssertionError("the hierarchical algorithm should be faster per zoom level, " + timings);
+        }
+    }
+
+    /** @return the time to add the items, the average time of getClusters() (both in ns), and the number of clusters seen */
+    private static long[] measure(Algorithm<BenchmarkItem> algorithm, List<BenchmarkItem> items, List<BenchmarkItem> changes) {
+        long start = System.nanoTime();
+        algorithm.addItems(items);
+        long addTime = System.nanoTime() - start;
+
+        long nbClusters = 0;
+        long clusteringTime = 0;
+        for (BenchmarkItem change : changes) {
+            algorithm.addItem(change);
+            start = System.nanoTime();
+            for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+                for (Cluster<BenchmarkItem> cluster : algorithm.getClusters(zoom)) {
+                    nbClusters += cluster.getSize() > 0 ? 1 : 0;
+                }
+            }
+            clusteringTime += System.nanoTime() - start;
+        }
+        return new long[]{addTime, clusteringTime / changes.size() / (MAX_ZOOM - MIN_ZOOM + 1), nbClusters};
+    }
+
+    private static BenchmarkItem randomItem(Random random) {
+        return new BenchmarkItem(CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES,
+                CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES);
+    }
+
+    private static class BenchmarkItem implements ClusterItem {
+        private final LatLng mPosition;
+
+        BenchmarkItem(double latitude, double longitude) {
+            mPosition = new LatLng(latitude, longitude);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+    }
+}
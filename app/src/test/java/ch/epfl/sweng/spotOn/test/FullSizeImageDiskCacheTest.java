@@ -0,0 +1,122 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ch.epfl.sweng.spotOn.media.FullSizeImageDiskCache;
+
+/**
+ * Checks that the FullSizeImageDiskCache gives back the images written, deletes the expired ones and the least
+ * recently used ones when it is full, and finds its images again when it is created anew (e.g. after a restart)
+ */
+public class FullSizeImageDiskCacheTest {
+
+    private final static long HOUR = 60 * 60 * 1000;
+    // times far enough from each other for the file systems keeping the last modified date in seconds
+    private final static long NOW = 1000 * HOUR;
+
+    @Test
+    public void imagesAreReadBackUntilTheyExpire() throws Exception {
+        File directory = newCacheDirectory();
+        try {
+            FullSizeImageDiskCache cache = new FullSizeImageDiskCache(directory, 1000);
+            byte[] image = image(100, (byte) 1);
+            cache.put("-KZ_picture1", NOW + HOUR, image, NOW);
+            if (!Arrays.equals(image, cache.get("-KZ_picture1", NOW + 1000))) {
+                throw new AssertionError("the image written should be read back");
+            }
+            if (cache.get("unknown", NOW) != null) {
+                throw new AssertionError("no image should be found for a picture never written");
+            }
+            cache.evictExpired(NOW + HOUR);
+            if (cache.contains("-KZ_picture1") || cache.size() != 0 || directory.list().length != 0) {
+                throw new AssertionError("the expired image should be deleted");
+            }
+            cache.put("picture2", NOW, image, NOW);
+            if (cache.contains("picture2")) {
+                throw new AssertionError("an image already expired should not be written");
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedImagesAreDeletedWhenFull() throws Exception {
+        File directory = newCacheDirectory();
+        try {
+            FullSizeImageDiskCache cache = new FullSizeImageDiskCache(directory, 300);
+            cache.put("picture1", NOW + HOUR, image(100, (byte) 1), NOW);
+            cache.put("picture2", NOW + HOUR, image(100, (byte) 2), NOW + 1000);
+            cache.put("picture3", NOW + HOUR, image(100, (byte) 3), NOW + 2000);
+            // picture1 is used again, so picture2 is now the least recently used
+            cache.get("picture1", NOW + 3000);
+            cache.put("picture4", NOW + HOUR, image(100, (byte) 4), NOW + 4000);
+            if (cache.contains("picture2") || !cache.contains("picture1") || cache.size() != 300) {
+                throw new AssertionError("the least recently used image should be deleted");
+            }
+            cache.put("picture1", NOW + HOUR, image(50, (byte) 5), NOW + 5000);
+            if (cache.size() != 250 || cache.get("picture1", NOW + 6000).length != 50) {
+                throw new AssertionError("writing an image again should replace the previous one");
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void imagesAreFoundAgainByANewCache() throws Exception {
+        File directory = newCacheDirectory();
+        try {
+            FullSizeImageDiskCache cache = new FullSizeImageDiskCache(directory, 200);
+            cache.put("picture1", NOW + HOUR, image(100, (byte) 1), NOW);
+            cache.put("picture2", NOW + 2 * HOUR, image(100, (byte) 2), NOW + 1000);
+            cache.get("picture1", NOW + 2000);
+
+            FullSizeImageDiskCache restartedCache = new FullSizeImageDiskCache(directory, 200);
+            if (restartedCache.size() != 200 || restartedCache.get("picture2", NOW + 3000)[0] != 2) {
+                throw new AssertionError("the images written before should be found again");
+            }
+            // picture1 was used before picture2 was read again
+            restartedCache.put("picture3", NOW + HOUR, image(100, (byte) 3), NOW + 4000);
+            if (restartedCache.contains("picture1") || !restartedCache.contains("picture2")) {
+                throw new AssertionError("the order of use should be kept by the files");
+            }
+            if (restartedCache.get("picture2", NOW + 2 * HOUR) != null) {
+                throw new AssertionError("the expire date should be kept by the files");
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+
+    private static byte[] image(int size, byte content) {
+        byte[] image = new byte[size];
+        Arrays.fill(image, content);
+        return image;
+    }
+
+    private static File newCacheDirectory() throws IOException {
+        File directory = File.createTempFile("fullSizeImages", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("could not create " + directory);
+        }
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+}
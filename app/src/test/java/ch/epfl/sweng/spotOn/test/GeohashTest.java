@@ -0,0 +1,69 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.Set;
+
+import ch.epfl.sweng.spotOn.localisation.Geohash;
+
+/**
+ * Checks the geohash encoding and that the prefixes used to fetch the photos cover the whole fetch circle
+ */
+public class GeohashTest {
+
+    @Test
+    public void encodesKnownPositions() {
+        String geohash = Geohash.encode(57.64911, 10.40744, 11);
+        if (!geohash.equals("u4pruydqqvj")) {
+            throw new AssertionError("wrong geohash " + geohash);
+        }
+        if (!Geohash.encode(46.5, 6.6, Geohash.STORED_PRECISION).startsWith("u0k")) {
+            throw new AssertionError("Geneva lake should be in cell u0k");
+        }
+    }
+
+    @Test
+    public void coveringPrefixesContainEveryPointOfTheCircle() {
+        assertCircleIsCovered(46.5, 6.6, 14000);
+    }
+
+    @Test
+    public void coveringPrefixesWrapAroundTheAntimeridian() {
+        // Fiji, on both sides of the antimeridian
+        assertCircleIsCovered(-17.7, 179.9, 14000);
+        assertCircleIsCovered(-17.7, -179.9, 14000);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void refusesEmptyPrecision() {
+        Geohash.encode(0, 0, 0);
+    }
+
+    private static void assertCircleIsCovered(double latitude, double longitude, double radius) {
+        Set<String> prefixes = Geohash.coveringPrefixes(latitude, longitude, radius);
+        if (prefixes.isEmpty() || prefixes.size() > Geohash.MAX_COVERING_CELLS) {
+            throw new AssertionError("unexpected number of prefixes : " + prefixes);
+        }
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double distance = random.nextDouble() * radius;
+            double pointLatitude = latitude + Math.sin(angle) * distance / 111195;
+            double pointLongitude = longitude + Math.cos(angle) * distance / (111195 * Math.cos(Math.toRadians(latitude)));
+            if (pointLongitude >= 180) {
+                pointLongitude -= 360;
+            } else if (pointLongitude < -180) {
+                pointLongitude += 360;
+            }
+            String geohash = Geohash.encode(pointLatitude, pointLongitude, Geohash.STORED_PRECISION);
+            boolean covered = false;
+            for (String prefix : prefixes) {
+                covered |= geohash.startsWith(prefix);
+            }
+            if (!covered) {
+                throw new AssertionError(geohash + " is in the circle but not covered by " + prefixes);
+            }
+        }
+    }
+}
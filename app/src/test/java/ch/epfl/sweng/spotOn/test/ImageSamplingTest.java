@@ -0,0 +1,50 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import ch.epfl.sweng.spotOn.media.ImageSampling;
+
+/**
+ * Checks that the full size images are sampled down as much as possible without showing fewer pixels than the view
+ * displaying them
+ */
+public class ImageSamplingTest {
+
+    @Test
+    public void imagesSmallerThanTheViewAreNotSampled() {
+        assertSampleSize(1, 1000, 800, 1080, 1920);
+        assertSampleSize(1, 1080, 1920, 1080, 1920);
+    }
+
+    @Test
+    public void sampledImagesKeepAtLeastThePixelsShown() {
+        // a 12 megapixels photo on a 1080p screen, in portrait and in landscape
+        assertSampleSize(2, 3000, 4000, 1080, 1920);
+        assertSampleSize(2, 4000, 3000, 1080, 1920);
+        assertSampleSize(4, 4320, 7680, 1080, 1920);
+        assertSampleSize(2, 4319, 7679, 1080, 1920);
+        // a panorama fits along its width, which is the dimension sampled
+        assertSampleSize(8, 9000, 1000, 1080, 1920);
+    }
+
+    @Test
+    public void imagesAreNotSampledForAViewNotLaidOut() {
+        assertSampleSize(1, 4000, 3000, 0, 0);
+    }
+
+    @Test
+    public void sampledSizesAreRoundedUp() {
+        if (ImageSampling.sampledSize(4000, 2) != 2000 || ImageSampling.sampledSize(4001, 2) != 2001
+                || ImageSampling.sampledSize(7, 4) != 2) {
+            throw new AssertionError("the sampled sizes should be rounded up");
+        }
+    }
+
+    private static void assertSampleSize(int expected, int imageWidth, int imageHeight, int viewWidth, int viewHeight) {
+        int sampleSize = ImageSampling.sampleSizeFor(imageWidth, imageHeight, viewWidth, viewHeight);
+        if (sampleSize != expected) {
+            throw new AssertionError("a " + imageWidth + "x" + imageHeight + " image in a " + viewWidth + "x"
+                    + viewHeight + " view should be sampled by " + expected + ", not " + sampleSize);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import ch.epfl.sweng.spotOn.localObjects.SortedPhotoIndex;
+
+/**
+ * Checks that the SortedPhotoIndex behind the grid keeps the same order as sorting everything again,
+ * and that its positions follow the insertions, removals and key changes
+ */
+public class SortedPhotoIndexTest {
+
+    @Test
+    public void orderMatchesAFullSortAfterRandomUpdates() {
+        Random random = new Random(0);
+        SortedPhotoIndex index = new SortedPhotoIndex();
+        final Map<String, Long> keys = new HashMap<>();
+        for (int step = 0; step < 5000; step++) {
+            String id = "photo" + random.nextInt(500);
+            int operation = random.nextInt(3);
+            if (operation == 0 && keys.containsKey(id)) {
+                if (!index.remove(id)) {
+                    throw new AssertionError(id + " should have been removed");
+                }
+                keys.remove(id);
+            } else {
+                // few different keys, to have ties
+                long key = random.nextInt(20) - 10;
+                boolean changed = index.put(id, key);
+                Long previousKey = keys.put(id, key);
+                if (changed == (previousKey != null && previousKey == key)) {
+                    throw new AssertionError("put should tell if the order changed");
+                }
+            }
+            if (step % 100 == 0) {
+                checkOrder(index, keys);
+            }
+        }
+        checkOrder(index, keys);
+    }
+
+    @Test
+    public void unknownIdsHaveNoPosition() {
+        SortedPhotoIndex index = new SortedPhotoIndex();
+        index.put("a", 1);
+        if (index.positionOf("b") != SortedPhotoIndex.NOT_FOUND || index.remove("b") || index.contains("b")) {
+            throw new AssertionError("b was never added");
+        }
+        index.remove("a");
+        if (index.positionOf("a") != SortedPhotoIndex.NOT_FOUND || index.size() != 0) {
+            throw new AssertionError("a was removed");
+        }
+    }
+
+    @Test
+    public void movingKeepsOnlyThePicturesViewableFromTheNewLocation() {
+        // the pictures are on a line, and can be seen from 10 steps away
+        SortedPhotoIndex index = new SortedPhotoIndex();
+        for (String id : viewableFrom(20)) {
+            index.put(id, idNumber(id));
+        }
+        // the user moves while a picture is added to and another removed from the database : the grid is only told
+        // about these two, the other pictures left or entered the view without any database change
+        Set<String> viewable = viewableFrom(50);
+        viewable.add("photo1000");
+        viewable.remove("photo45");
+        Set<String> candidates = new HashSet<>(Arrays.asList("photo1000", "photo45"));
+        candidates.addAll(index.differenceWith(viewable));
+        for (String id : candidates) {
+            if (viewable.contains(id)) {
+                index.put(id, idNumber(id));
+            } else {
+                index.remove(id);
+            }
+        }
+        if (!new HashSet<>(index.getIds()).equals(viewable) || index.size() != viewable.size()) {
+            throw new AssertionError("the index should hold the pictures viewable after the move : " + index.getIds());
+        }
+        if (!index.differenceWith(viewable).isEmpty()) {
+            throw new AssertionError("nothing should differ once the index is updated");
+        }
+    }
+
+
+    private static Set<String> viewableFrom(int location) {
+        Set<String> ids = new HashSet<>();
+        for (int i = location - 10; i <= location + 10; i++) {
+            ids.add("photo" + i);
+        }
+        return ids;
+    }
+
+    private static long idNumber(String id) {
+        return Long.parseLong(id.substring("photo".length()));
+    }
+
+    private static void checkOrder(SortedPhotoIndex index, final Map<String, Long> keys) {
+        List<String> expected = new ArrayList<>(keys.keySet());
+        Collections.sort(expected, new Comparator<String>() {
+            @Override
+            public int compare(String id1, String id2) {
+                int byKey = keys.get(id1).compareTo(keys.get(id2));
+                return byKey != 0 ? byKey : id1.compareTo(id2);
+            }
+        });
+        if (!expected.equals(index.getIds())) {
+            throw new AssertionError("the index isn't sorted like a full sort");
+        }
+        // ask the positions in a random order, so that they are computed from different starting points
+        List<String> shuffled = new ArrayList<>(expected);
+        Collections.shuffle(shuffled, new Random(expected.size()));
+        for (String id : shuffled) {
+            int position = index.positionOf(id);
+            if (position != expected.indexOf(id) || !index.idAt(position).equals(id)) {
+                throw new AssertionError("wrong position for " + id + " : " + position);
+            }
+        }
+    }
+}
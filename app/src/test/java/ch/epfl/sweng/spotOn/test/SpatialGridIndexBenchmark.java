@@ -0,0 +1,159 @@
+package ch.epfl.sweng.spotOn.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import ch.epfl.sweng.spotOn.localObjects.SpatialGridIndex;
+
+/**
+ * JVM benchmark comparing the box queries of the SpatialGridIndex used to cull the pins of the map
+ * to a linear scan over every photo, for 1k, 10k and 100k photos spread around the Geneva lake.
+ * The index must give the same photos and, from 10k photos, be several times faster.
+ */
+public class SpatialGridIndexBenchmark {
+
+    private final static double CENTER_LATITUDE = 46.5;
+    private final static double CENTER_LONGITUDE = 6.6;
+    private final static double SPREAD_IN_DEGREES = 1.0;   // roughly 110km x 75km
+    private final static int NB_QUERIES = 200;
+    private final static int NB_WARM_UP_ROUNDS = 3;
+    private final static int NB_TIMED_ROUNDS = 5;
+    private final static double BOX_SIZE_IN_DEGREES = 0.05;   // roughly the visible region of the map in a city
+
+    @Test
+    public void boxQueryWith1kPhotos() {
+        // too few photos for the index to be reliably faster, only check that it agrees with the scan
+        compareIndexToLinearScan(1000, 0);
+    }
+
+    @Test
+    public void boxQueryWith10kPhotos() {
+        compareIndexToLinearScan(10000, 2);
+    }
+
+    @Test
+    public void boxQueryWith100kPhotos() {
+        compareIndexToLinearScan(100000, 5);
+    }
+
+    @Test
+    public void boxQueryMatchesLinearScan() {
+        Random random = new Random(0);
+        SpatialGridIndex index = new SpatialGridIndex(1000);
+        List<String> ids = new ArrayList<>();
+        List<double[]> positions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // around the Geneva lake and around the antimeridian
+            double longitude = i % 2 == 0 ? CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES
+                    : random.nextBoolean() ? 180 - random.nextDouble() * SPREAD_IN_DEGREES / 2
+                    : -180 + random.nextDouble() * SPREAD_IN_DEGREES / 2;
+            double latitude = CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            ids.add("photo" + i);
+            positions.add(new double[]{latitude, longitude});
+            index.put("photo" + i, latitude, longitude);
+        }
+        double[][] boxes = {
+                {46.4, 6.5, 46.6, 6.7},        // {south, west, north, east}
+                {46.0, 179.8, 47.0, -179.9},   // across the antimeridian
+                {-90, -180, 90, 180}           // the whole world
+        };
+        for (double[] box : boxes) {
+            HashSet<String> expected = new HashSet<>();
+            for (int i = 0; i < ids.size(); i++) {
+                double latitude = positions.get(i)[0];
+                double longitude = positions.get(i)[1];
+                boolean inLongitudes = box[1] <= box[3] ? longitude >= box[1] && longitude <= box[3]
+                        : longitude >= box[1] || longitude <= box[3];
+                if (latitude >= box[0] && latitude <= box[2] && inLongitudes) {
+                    expected.add(ids.get(i));
+                }
+            }
+            HashSet<String> fromIndex = new HashSet<>(index.idsInBox(box[0], box[1], box[2], box[3]));
+            if (expected.isEmpty() || !expected.equals(fromIndex)) {
+                throw new AssertionError("index and linear scan disagree in the box " + box[0] + ", " + box[1] + ", "
+                        + box[2] + ", " + box[3] + " (" + fromIndex.size() + " instead of " + expected.size() + ")");
+            }
+        }
+    }
+
+
+    /**
+     * @param minSpeedUp how many times faster than the linear scan the index must at least be
+     */
+    private void compareIndexToLinearScan(int nbPhotos, double minSpeedUp) {
+        Random random = new Random(nbPhotos);
+        String[] ids = new String[nbPhotos];
+        double[] latitudes = new double[nbPhotos];
+        double[] longitudes = new double[nbPhotos];
+        SpatialGridIndex index = new SpatialGridIndex(1000);
+        for (int i = 0; i < nbPhotos; i++) {
+            ids[i] = "photo" + i;
+            latitudes[i] = CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            longitudes[i] = CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            index.put(ids[i], latitudes[i], longitudes[i]);
+        }
+        // {south, west, north, east}
+        double[][] boxes = new double[NB_QUERIES][4];
+        for (int q = 0; q < NB_QUERIES; q++) {
+            boxes[q][0] = CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            boxes[q][1] = CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_IN_DEGREES;
+            boxes[q][2] = boxes[q][0] + BOX_SIZE_IN_DEGREES;
+            boxes[q][3] = boxes[q][1] + BOX_SIZE_IN_DEGREES;
+        }
+
+        // both approaches must give the same photos
+        for (double[] box : boxes) {
+            List<String> fromIndex = index.idsInBox(box[0], box[1], box[2], box[3]);
+            List<String> fromScan = linearScan(ids, latitudes, longitudes, box);
+            if (!new HashSet<>(fromIndex).equals(new HashSet<>(fromScan))) {
+                throw new AssertionError("index and linear scan disagree in the box " + box[0] + ", " + box[1] + ", "
+                        + box[2] + ", " + box[3]);
+            }
+        }
+
+        long found = 0;
+        for (int round = 0; round < NB_WARM_UP_ROUNDS; round++) {
+            for (double[] box : boxes) {
+                found += index.idsInBox(box[0], box[1], box[2], box[3]).size();
+                found += linearScan(ids, latitudes, longitudes, box).size();
+            }
+        }
+
+        // the best of several rounds, so that a garbage collection or a JIT compilation doesn't decide the outcome
+        long linearScanTime = Long.MAX_VALUE;
+        long indexTime = Long.MAX_VALUE;
+        for (int round = 0; round < NB_TIMED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (double[] box : boxes) {
+                found += linearScan(ids, latitudes, longitudes, box).size();
+            }
+            linearScanTime = Math.min(linearScanTime, (System.nanoTime() - start) / NB_QUERIES);
+
+            start = System.nanoTime();
+            for (double[] box : boxes) {
+                found += index.idsInBox(box[0], box[1], box[2], box[3]).size();
+            }
+            indexTime = Math.min(indexTime, (System.nanoTime() - start) / NB_QUERIES);
+        }
+
+        if (found == 0 || indexTime * minSpeedUp > linearScanTime) {
+            throw new AssertionError("with " + nbPhotos + " photos, the grid index takes " + indexTime / 1000
+                    + "us/query against " + linearScanTime / 1000 + "us/query for the linear scan, it should be at least "
+                    + minSpeedUp + " times faster (" + found + " results)");
+        }
+    }
+
+    private static List<String> linearScan(String[] ids, double[] latitudes, double[] longitudes, double[] box) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (latitudes[i] >= box[0] && latitudes[i] <= box[2] && longitudes[i] >= box[1] && longitudes[i] <= box[3]) {
+                result.add(ids[i]);
+            }
+        }
+        return result;
+    }
+}